@@ -0,0 +1,161 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes an opening book for OpeningBook from a text file of opening lines.
+ * Each line of the file is a sequence of moves from the starting position
+ * in coordinate notation, such as "e2e4 e7e5 g1f3", and text after a '#'
+ * is a comment. The weight of a move in a position is the number of lines
+ * that play it there, so a move shared by many lines is chosen more often.
+ * With -plies only the first moves of each line are used.
+ *
+ * Usage: BookMaker [-plies n] lines book
+ * @author Paul
+ */
+public class BookMaker {
+
+    // largest weight a Polyglot entry can hold
+    private static final int MAX_WEIGHT = 0xFFFF;
+
+    /**
+     * Reads the lines and writes the book
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws Exception {
+        int plies = Integer.MAX_VALUE;
+        int i = 0;
+        for(; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("-plies") && i + 1 < args.length)
+                plies = Integer.parseInt(args[++i]);
+            else
+                usage();
+        }
+        if (args.length - i != 2)
+            usage();
+
+        // weights of the moves in Polyglot format, by position key
+        Map<Long, Map<Integer, Integer>> positions =
+                new HashMap<Long, Map<Integer, Integer>>();
+        BufferedReader in = new BufferedReader(new FileReader(args[i]));
+        int lines = 0;
+        try {
+            String line;
+            for(int number = 1; (line = in.readLine()) != null; number++) {
+                int comment = line.indexOf('#');
+                if (comment >= 0)
+                    line = line.substring(0, comment);
+                line = line.trim();
+                if (line.length() == 0)
+                    continue;
+                addLine(positions, line.split("\\s+"), plies, number);
+                lines++;
+            }
+        } finally {
+            in.close();
+        }
+
+        int entries = write(positions, args[i + 1]);
+        System.out.println(lines + " lines, " + positions.size() +
+                " positions, " + entries + " entries written to " + args[i + 1]);
+    }
+
+    /**
+     * Prints the usage of the tool and exits
+     */
+    private static void usage() {
+        System.out.println("Usage: BookMaker [-plies n] lines book");
+        System.exit(2);
+    }
+
+    /**
+     * Plays the moves of a line from the starting position, adding one to
+     *  the weight of each move in the position it is played in
+     * @param positions weights of the moves by position key
+     * @param moves moves in coordinate notation
+     * @param plies number of moves to use
+     * @param number line number, for the error message
+     */
+    private static void addLine(Map<Long, Map<Integer, Integer>> positions,
+            String[] moves, int plies, int number) {
+        Board board = new Board(true);
+        int[] legal = new int[Board.MAX_MOVES];
+        for(int ply = 0; ply < moves.length && ply < plies; ply++) {
+            int count = board.generateMoves(legal, 0);
+            int move = 0;
+            for(int j = 0; j < count; j++)
+                if (PackedMove.toString(legal[j]).equals(moves[ply]))
+                    move = legal[j];
+            if (move == 0)
+                throw new IllegalArgumentException("Line " + number +
+                        ": illegal move " + moves[ply]);
+
+            long key = OpeningBook.polyglotKey(board);
+            Map<Integer, Integer> weights = positions.get(key);
+            if (weights == null) {
+                weights = new HashMap<Integer, Integer>();
+                positions.put(key, weights);
+            }
+            int bookMove = OpeningBook.encode(move);
+            Integer weight = weights.get(bookMove);
+            weights.put(bookMove, weight == null ? 1 :
+                    Math.min(weight + 1, MAX_WEIGHT));
+            board.makeMove(move);
+        }
+    }
+
+    /**
+     * Writes the book, sorted by position key as unsigned numbers and the
+     *  moves of each position by weight, heaviest first
+     * @param positions weights of the moves by position key
+     * @param file name of the book file
+     * @return number of entries written
+     */
+    private static int write(Map<Long, Map<Integer, Integer>> positions,
+            String file) throws Exception {
+        List<Long> keys = new ArrayList<Long>(positions.keySet());
+        Collections.sort(keys, new Comparator<Long>() {
+            public int compare(Long a, Long b) {
+                long x = a + Long.MIN_VALUE;
+                long y = b + Long.MIN_VALUE;
+                return x < y ? -1 : x > y ? 1 : 0;
+            }
+        });
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        int entries = 0;
+        try {
+            for(long key : keys) {
+                final Map<Integer, Integer> weights = positions.get(key);
+                List<Integer> moves = new ArrayList<Integer>(weights.keySet());
+                Collections.sort(moves, new Comparator<Integer>() {
+                    public int compare(Integer a, Integer b) {
+                        return weights.get(b) - weights.get(a);
+                    }
+                });
+                for(int move : moves) {
+                    out.writeLong(key);
+                    out.writeShort(move);
+                    out.writeShort(weights.get(move));
+                    // learning value, not used
+                    out.writeInt(0);
+                    entries++;
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return entries;
+    }
+}
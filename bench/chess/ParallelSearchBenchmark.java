@@ -0,0 +1,107 @@
+package chess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Measures how the search of the ai scales with the number of threads.
+ * Every position is searched to a fixed depth with 1, 2, 4, 8 and 16
+ * threads, using both parallel search modes, and the time to depth and
+ * nodes per second are reported. Uses the starting position and the saved
+ * games in the SAVES folder as test positions.
+ * @author Paul
+ */
+public class ParallelSearchBenchmark {
+
+    private static final int DEFAULT_DEPTH = 4;
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    /**
+     * Runs the benchmark
+     * @param args optional search depth and path of the folder to read
+     *  positions from
+     */
+    public static void main(String[] args) throws Exception {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+        File directory = new File(args.length > 1 ? args[1] : "SAVES");
+        List<Board> boards = loadBoards(directory);
+
+        System.out.println("Positions: " + boards.size() + ", depth: " + depth
+                + ", processors: " + Runtime.getRuntime().availableProcessors());
+
+        // warm up the JIT before timing anything, on every path the
+        // timed runs take
+        for(Ai.ParallelMode mode : Ai.ParallelMode.values())
+            for(int threads : THREADS)
+                run(boards, depth, threads, mode);
+
+        for(Ai.ParallelMode mode : Ai.ParallelMode.values()) {
+            System.out.println(mode + ":");
+            long baseTime = 0;
+            for(int threads : THREADS) {
+                long[] result = run(boards, depth, threads, mode);
+                long time = result[0];
+                long nodes = result[1];
+                if (threads == 1)
+                    baseTime = time;
+                System.out.printf("%3d threads: %8.1f ms, %10d nodes, %8.0f knps, speedup %.2fx%n",
+                        threads, time / 1e6, nodes, nodes / (time / 1e6),
+                        (double)baseTime / time);
+            }
+        }
+    }
+
+    /**
+     * Searches every position once, each with a new ai. The transposition
+     *  table and the threads of the ai are made before the search is timed,
+     *  and the threads are ended after it.
+     * @param boards positions to search
+     * @param depth depth of the search
+     * @param threads number of threads
+     * @param mode parallel search mode
+     * @return total time in nanoseconds and total number of nodes
+     */
+    private static long[] run(List<Board> boards, int depth, int threads,
+            Ai.ParallelMode mode) {
+        long time = 0;
+        long nodes = 0;
+        for(Board b : boards) {
+            Ai ai = new Ai(b.getTurn(), depth);
+            ai.setThreads(threads);
+            ai.setParallelMode(mode);
+            ai.prepareSearch();
+
+            long start = System.nanoTime();
+            ai.getMove(b);
+            time += System.nanoTime() - start;
+            nodes += ai.getNodeCount();
+            ai.shutdown();
+        }
+        return new long[] {time, nodes};
+    }
+
+    /**
+     * Returns the starting position and all the saved boards in a folder
+     *  that are not over
+     * @param directory folder containing the saves
+     * @return list of boards
+     */
+    private static List<Board> loadBoards(File directory) throws Exception {
+        List<Board> boards = new ArrayList<Board>();
+        boards.add(new Board(true));
+        File[] saves = directory.listFiles();
+        if (saves == null)
+            return boards;
+        for(File f : saves) {
+            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f));
+            Board b = (Board)ois.readObject();
+            ois.close();
+            if (!b.gameOver())
+                boards.add(b);
+        }
+        return boards;
+    }
+}
@@ -0,0 +1,303 @@
+package chess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the positions reached by all the legal move sequences of a given
+ * length, to check move generation against known counts and to measure its
+ * speed. With -divide the count is broken down by the first move, which
+ * finds the move that goes wrong when a count differs from the expected
+ * one. The last ply is counted in bulk from the number of legal moves,
+ * unless -full is given, in which case every leaf move is also made and
+ * taken back. With -threads the first moves are split between threads,
+ * each searching on its own copy of the board.
+ *
+ * Usage: Perft [-divide] [-full] [-threads n] depth [position]
+ * where position is "start" (default), "kiwipete", "suite" to check the
+ * standard test positions, a saved game, or a position in Forsyth-Edwards
+ * Notation.
+ * @author Paul
+ */
+public class Perft {
+
+    private static final String START =
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    private static final String KIWIPETE =
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1";
+
+    // standard test positions and their known counts from depth 1 onwards
+    private static final String[] SUITE = {
+        START,
+        KIWIPETE,
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+    };
+    private static final long[][] SUITE_COUNTS = {
+        {20, 400, 8902, 197281, 4865609, 119060324},
+        {48, 2039, 97862, 4085603, 193690690},
+        {14, 191, 2812, 43238, 674624, 11030083},
+        {6, 264, 9467, 422333, 15833292},
+        {44, 1486, 62379, 2103487, 89941194},
+        {46, 2079, 89890, 3894594, 164075551}
+    };
+
+    // whether the last ply is counted from the number of moves
+    private final boolean bulk;
+    // move buffers, one for each ply
+    private final int[][] buffers;
+
+    /**
+     * Creates a counter for one thread
+     * @param depth greatest depth to count to
+     * @param bulk true to count the last ply without making its moves
+     */
+    Perft(int depth, boolean bulk) {
+        this.bulk = bulk;
+        this.buffers = new int[depth + 1][Board.MAX_MOVES];
+    }
+
+    /**
+     * Runs the tool
+     * @param args options, depth and position, see the class description
+     */
+    public static void main(String[] args) throws Exception {
+        boolean divide = false;
+        boolean bulk = true;
+        int threads = 1;
+        int i = 0;
+        for(; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("-divide"))
+                divide = true;
+            else if (args[i].equals("-full"))
+                bulk = false;
+            else if (args[i].equals("-threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else
+                usage();
+        }
+        if (i == args.length)
+            usage();
+        int depth = Integer.parseInt(args[i++]);
+
+        StringBuilder position = new StringBuilder();
+        for(; i < args.length; i++)
+            position.append(args[i]).append(' ');
+        String name = position.toString().trim();
+
+        if (name.equals("suite")) {
+            if (!runSuite(depth, bulk, threads))
+                System.exit(1);
+            return;
+        }
+
+        Board board = loadBoard(name);
+        System.out.println("Threads: " + threads + ", bulk counting: " + bulk);
+        for(int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long[] counts = divide(board, d, bulk, threads);
+            long time = System.nanoTime() - start;
+            long nodes = sum(counts);
+            System.out.printf("depth %2d: %12d nodes, %9.1f ms, %8.0f knps%n",
+                    d, nodes, time / 1e6, nodes / (time / 1e6));
+            if (divide && d == depth)
+                printDivide(board, counts);
+        }
+    }
+
+    /**
+     * Prints the usage of the tool and exits
+     */
+    private static void usage() {
+        System.out.println("Usage: Perft [-divide] [-full] [-threads n] depth "
+                + "[start | kiwipete | suite | save file | FEN]");
+        System.exit(2);
+    }
+
+    /**
+     * Returns the board of a position given on the command line
+     * @param name name of the position, the path of a save or a FEN string
+     * @return the board
+     */
+    private static Board loadBoard(String name) throws Exception {
+        if (name.length() == 0 || name.equals("start"))
+            return Board.fromFen(START);
+        if (name.equals("kiwipete"))
+            return Board.fromFen(KIWIPETE);
+        File save = new File(name);
+        if (save.isFile()) {
+            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(save));
+            Board b = (Board)ois.readObject();
+            ois.close();
+            return b;
+        }
+        return Board.fromFen(name);
+    }
+
+    /**
+     * Counts the standard test positions up to a depth and compares the
+     *  counts with the known ones
+     * @param depth greatest depth to count to, smaller for positions with
+     *  fewer known counts
+     * @param bulk true to count the last ply without making its moves
+     * @param threads number of threads
+     * @return true if all the counts were right
+     */
+    private static boolean runSuite(int depth, boolean bulk, int threads) {
+        boolean passed = true;
+        long totalNodes = 0;
+        long totalTime = 0;
+        for(int p = 0; p < SUITE.length; p++) {
+            Board board = Board.fromFen(SUITE[p]);
+            int d = Math.min(depth, SUITE_COUNTS[p].length);
+            long start = System.nanoTime();
+            long nodes = sum(divide(board, d, bulk, threads));
+            long time = System.nanoTime() - start;
+            totalNodes += nodes;
+            totalTime += time;
+
+            long expected = SUITE_COUNTS[p][d - 1];
+            boolean ok = nodes == expected;
+            passed &= ok;
+            System.out.printf("%-4s %d: depth %d, %d nodes%s, %.1f ms%n",
+                    ok ? "ok" : "FAIL", p + 1, d, nodes,
+                    ok ? "" : " (expected " + expected + ")", time / 1e6);
+        }
+        System.out.printf("Total: %d nodes, %.1f ms, %.0f knps%n",
+                totalNodes, totalTime / 1e6, totalNodes / (totalTime / 1e6));
+        return passed;
+    }
+
+    /**
+     * Counts the positions after each legal move of a board
+     * @param board position to count from, left unchanged
+     * @param depth number of plies to count, at least 1
+     * @param bulk true to count the last ply without making its moves
+     * @param threads number of threads to split the moves between
+     * @return count for each move, in the order of generateMoves()
+     */
+    static long[] divide(Board board, int depth, boolean bulk, int threads) {
+        int[] moves = new int[Board.MAX_MOVES];
+        int count = board.generateMoves(moves, 0);
+        long[] counts = new long[count];
+
+        if (threads <= 1) {
+            Perft perft = new Perft(depth, bulk);
+            for(int i = 0; i < count; i++) {
+                board.makeMove(moves[i]);
+                counts[i] = perft.count(board, depth - 1);
+                board.unmakeMove();
+            }
+            return counts;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<MoveTask> tasks = new ArrayList<MoveTask>();
+        for(int i = 0; i < count; i++) {
+            MoveTask task = new MoveTask(board, moves[i], depth, bulk);
+            tasks.add(task);
+            pool.execute(task);
+        }
+        for(int i = 0; i < count; i++)
+            counts[i] = tasks.get(i).join();
+        pool.shutdown();
+        return counts;
+    }
+
+    /**
+     * Counts the positions reached from a board
+     * @param board position to count from, left unchanged
+     * @param depth number of plies to count
+     * @return number of positions
+     */
+    long count(Board board, int depth) {
+        if (depth == 0)
+            return 1;
+        if (depth == 1 && bulk)
+            return board.countLegalMoves();
+
+        int[] moves = buffers[depth];
+        int count = board.generateMoves(moves, 0);
+        long nodes = 0;
+        for(int i = 0; i < count; i++) {
+            board.makeMove(moves[i]);
+            nodes += count(board, depth - 1);
+            board.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Prints the count of each move, sorted by the name of the move
+     * @param board position the moves were counted from
+     * @param counts count for each move, in the order of generateMoves()
+     */
+    private static void printDivide(Board board, long[] counts) {
+        int[] moves = new int[Board.MAX_MOVES];
+        board.generateMoves(moves, 0);
+        List<String> lines = new ArrayList<String>();
+        for(int i = 0; i < counts.length; i++)
+            lines.add(PackedMove.toString(moves[i]) + ": " + counts[i]);
+        Collections.sort(lines);
+        for(String line : lines)
+            System.out.println(line);
+        System.out.println("Moves: " + counts.length + ", nodes: " + sum(counts));
+    }
+
+    /**
+     * Adds up counts
+     * @param counts counts to add
+     * @return the sum
+     */
+    private static long sum(long[] counts) {
+        long total = 0;
+        for(long c : counts)
+            total += c;
+        return total;
+    }
+
+    /**
+     * Counts the positions after one move on its own copy of the board
+     */
+    private static class MoveTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 3104263035437103231L;
+
+        private final Board board;
+        private final int move;
+        private final int depth;
+        private final boolean bulk;
+
+        /**
+         * Creates a new task
+         * @param board position before the move, copied by the task
+         * @param move move to count
+         * @param depth number of plies to count, including the move
+         * @param bulk true to count the last ply without making its moves
+         */
+        MoveTask(Board board, int move, int depth, boolean bulk) {
+            this.board = board;
+            this.move = move;
+            this.depth = depth;
+            this.bulk = bulk;
+        }
+
+        /**
+         * Makes the move on a copy of the board and counts from there
+         * @return number of positions
+         */
+        @Override
+        protected Long compute() {
+            Board copy = board.clone();
+            copy.makeMove(move);
+            return new Perft(depth, bulk).count(copy, depth - 1);
+        }
+    }
+}
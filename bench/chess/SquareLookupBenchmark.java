@@ -0,0 +1,112 @@
+package chess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Compares the mailbox lookup of Board.getPieceAt against the linear scan
+ * over the piece list that it replaced. Uses the saved games in the SAVES
+ * folder as test positions.
+ * @author Paul
+ */
+public class SquareLookupBenchmark {
+    
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 20000;
+    
+    // keeps the JIT from discarding the lookups
+    private static int sink;
+    
+    /**
+     * Runs the benchmark
+     * @param args optional path of the folder to read positions from
+     */
+    public static void main(String[] args) throws Exception {
+        File directory = new File(args.length > 0 ? args[0] : "SAVES");
+        List<Board> boards = loadBoards(directory);
+        if (boards.size() == 0) {
+            System.out.println("No saved games found in " + directory);
+            return;
+        }
+        
+        runScan(boards, WARMUP_ROUNDS);
+        runMailbox(boards, WARMUP_ROUNDS);
+        
+        long lookups = (long)ROUNDS * boards.size() * 64;
+        
+        long start = System.nanoTime();
+        runScan(boards, ROUNDS);
+        long scanTime = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        runMailbox(boards, ROUNDS);
+        long mailboxTime = System.nanoTime() - start;
+        
+        System.out.println("Positions: " + boards.size() + ", lookups: " + lookups);
+        System.out.printf("List scan: %.2f ns/lookup%n", (double)scanTime / lookups);
+        System.out.printf("Mailbox:   %.2f ns/lookup%n", (double)mailboxTime / lookups);
+        System.out.printf("Speedup:   %.1fx%n", (double)scanTime / mailboxTime);
+        System.out.println("(" + sink + ")");
+    }
+    
+    /**
+     * Reads all the saved boards in a folder
+     * @param directory folder containing the saves
+     * @return list of boards
+     */
+    private static List<Board> loadBoards(File directory) throws Exception {
+        List<Board> boards = new ArrayList<Board>();
+        File[] saves = directory.listFiles();
+        if (saves == null)
+            return boards;
+        for(File f : saves) {
+            ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f));
+            boards.add((Board)ois.readObject());
+            ois.close();
+        }
+        return boards;
+    }
+    
+    /**
+     * Looks up every square of every board using the linear scan
+     */
+    private static void runScan(List<Board> boards, int rounds) {
+        int found = 0;
+        for(int r = 0; r < rounds; r++)
+            for(Board b : boards)
+                for(int sq = 0; sq < 64; sq++)
+                    if (scan(b, sq) != null)
+                        found++;
+        sink += found;
+    }
+    
+    /**
+     * Looks up every square of every board using the mailbox
+     */
+    private static void runMailbox(List<Board> boards, int rounds) {
+        int found = 0;
+        for(int r = 0; r < rounds; r++)
+            for(Board b : boards)
+                for(int sq = 0; sq < 64; sq++)
+                    if (b.getPieceAt(sq) != null)
+                        found++;
+        sink += found;
+    }
+    
+    /**
+     * The previous implementation of Board.getPieceAt
+     * @param board board to search
+     * @param sq the specified square
+     * @return the piece on the square. null if no piece found
+     */
+    private static Piece scan(Board board, int sq) {
+        for(Piece pc : board.getPieces()) {
+            if(pc.getSquare() == sq)
+                return pc;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,704 @@
+package chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Makes the endgame tables of Tablebase by retrograde analysis. All the
+ * positions of a table are first marked as illegal, checkmated or unknown.
+ * Then the mates are worked back from one ply at a time: a position is won
+ * in n plies if a move leads to a position lost in n - 1, and lost in n
+ * plies if every move leads to a position won, in n - 1 plies at most.
+ * Captures and promotions lead into smaller tables, which are made first.
+ * The positions still unknown when no more mates are found are draws. Each
+ * pass over the positions is split between threads.
+ * Castling is not possible in the tables. En passant captures are, after
+ * a pawn moves two squares, but the tables do not hold the positions where
+ * a capture is possible, see Tablebase.
+ *
+ * Usage: TablebaseGenerator [-threads n] [-directory folder] material...
+ * where material names a table, such as "KRK" or "KBNK", or is "all" for
+ * every table of up to Tablebase.MAX_PIECES pieces. Tables that exist are
+ * not made again.
+ * @author Paul
+ */
+public class TablebaseGenerator {
+
+    // mark of a position that cannot be reached in a game
+    private static final byte ILLEGAL = Byte.MIN_VALUE;
+    // pieces a pawn can be promoted to
+    private static final int[] PROMOTIONS = {
+        PackedMove.QUEEN, PackedMove.ROOK, PackedMove.BISHOP, PackedMove.KNIGHT
+    };
+
+    private final File directory;
+    private final int threads;
+    private final ExecutorService executor;
+    // the tables made so far, to probe the positions after captures and
+    // promotions
+    private final Tablebase tablebase;
+
+    // the table being made: its pieces in the order of the tables, and the
+    // result of each position as Tablebase.probe() returns it, 0 until it
+    // is known
+    private int[] pieces;
+    private boolean pawns;
+    private byte[] results;
+
+    /**
+     * Creates a generator
+     * @param directory folder to write the tables to
+     * @param threads number of threads to use
+     */
+    public TablebaseGenerator(File directory, int threads) {
+        this.directory = directory;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.tablebase = new Tablebase(directory);
+    }
+
+    /**
+     * Makes the tables given on the command line
+     * @param args command line arguments
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        File directory = new File(Tablebase.DEFAULT_DIRECTORY);
+        int i = 0;
+        for(; i < args.length && args[i].startsWith("-"); i++) {
+            if (args[i].equals("-threads") && i + 1 < args.length)
+                threads = Integer.parseInt(args[++i]);
+            else if (args[i].equals("-directory") && i + 1 < args.length)
+                directory = new File(args[++i]);
+            else
+                usage();
+        }
+        if (i == args.length)
+            usage();
+
+        List<String> names = new ArrayList<String>();
+        for(; i < args.length; i++) {
+            if (args[i].equals("all"))
+                names.addAll(allTables());
+            else
+                names.add(canonical(args[i]));
+        }
+
+        directory.mkdirs();
+        TablebaseGenerator generator = new TablebaseGenerator(directory, threads);
+        try {
+            for(String name : names)
+                generator.generate(name);
+        } finally {
+            generator.executor.shutdown();
+        }
+    }
+
+    /**
+     * Prints the usage of the tool and exits
+     */
+    private static void usage() {
+        System.out.println("Usage: TablebaseGenerator [-threads n] "
+                + "[-directory folder] material... | all");
+        System.exit(2);
+    }
+
+    /**
+     * Returns the names of all the tables, weaker pieces after stronger
+     * @return names such as "KQK", "KRNK" and "KRKP"
+     */
+    private static List<String> allTables() {
+        String types = "QRBNP";
+        List<String> names = new ArrayList<String>();
+        for(int a = 0; a < types.length(); a++)
+            names.add("K" + types.charAt(a) + "K");
+        for(int a = 0; a < types.length(); a++)
+            for(int b = a; b < types.length(); b++) {
+                names.add("K" + types.charAt(a) + types.charAt(b) + "K");
+                names.add("K" + types.charAt(a) + "K" + types.charAt(b));
+            }
+        return names;
+    }
+
+    /**
+     * Returns the name of the table that holds a material
+     * @param material a king, white's other pieces, a king and black's
+     *  other pieces, such as "KPK" or "KKQ"
+     * @return the name of the table, such as "KPK" or "KQK"
+     */
+    static String canonical(String material) {
+        int black = material.indexOf('K', 1);
+        if (!material.startsWith("K") || black < 0 ||
+                material.indexOf('K', black + 1) >= 0 ||
+                material.length() > Tablebase.MAX_PIECES ||
+                material.length() < 3)
+            throw new IllegalArgumentException("Not a table: " + material);
+        int[] pcs = new int[material.length()];
+        for(int i = 0; i < pcs.length; i++) {
+            int type = "PNBRQK".indexOf(material.charAt(i));
+            if (type < 0)
+                throw new IllegalArgumentException("Not a table: " + material);
+            pcs[i] = (i < black ? 0 : 6) + type;
+        }
+        return canonical(pcs, pcs.length);
+    }
+
+    /**
+     * Returns the name of the table that holds a set of pieces
+     * @param pcs the pieces, as color.ordinal() * 6 + type
+     * @param count number of pieces
+     * @return the name of the table
+     */
+    private static String canonical(int[] pcs, int count) {
+        int[] sorted = new int[count];
+        for(int i = 0; i < count; i++)
+            sorted[i] = pcs[i];
+        int[] squares = new int[count];
+        Tablebase.sort(sorted, squares, count);
+        if (Tablebase.blackIsStronger(sorted, count)) {
+            for(int i = 0; i < count; i++)
+                sorted[i] = (sorted[i] + 6) % 12;
+            Tablebase.sort(sorted, squares, count);
+        }
+        return Tablebase.name(sorted, count);
+    }
+
+    /**
+     * Returns the pieces of a table
+     * @param name name of the table
+     * @return the pieces in the order of the tables
+     */
+    private static int[] parse(String name) {
+        int black = name.indexOf('K', 1);
+        int[] pcs = new int[name.length()];
+        for(int i = 0; i < pcs.length; i++)
+            pcs[i] = (i < black ? 0 : 6) + "PNBRQK".indexOf(name.charAt(i));
+        return pcs;
+    }
+
+    /**
+     * Returns the tables that the captures and promotions of a table lead
+     *  into. Captures that leave only the kings lead to no table.
+     * @param name name of the table
+     * @return names of the tables
+     */
+    private static List<String> dependencies(String name) {
+        int[] pcs = parse(name);
+        List<String> names = new ArrayList<String>();
+        for(int i = 0; i < pcs.length; i++) {
+            if (pcs[i] % 6 == PackedMove.KING)
+                continue;
+            if (pcs.length > 3) {
+                int[] captured = new int[pcs.length - 1];
+                for(int j = 0, k = 0; j < pcs.length; j++)
+                    if (j != i)
+                        captured[k++] = pcs[j];
+                add(names, canonical(captured, captured.length));
+            }
+            if (pcs[i] % 6 == PackedMove.PAWN) {
+                for(int type : PROMOTIONS) {
+                    int[] promoted = pcs.clone();
+                    promoted[i] = pcs[i] - PackedMove.PAWN + type;
+                    add(names, canonical(promoted, promoted.length));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Adds a name to a list if it is not in it
+     * @param names the list
+     * @param name name to add
+     */
+    private static void add(List<String> names, String name) {
+        if (!names.contains(name))
+            names.add(name);
+    }
+
+    /**
+     * Returns the file of a table
+     * @param name name of the table
+     * @return the file in the folder of the tables
+     */
+    private File file(String name) {
+        return new File(directory, name + Tablebase.EXTENSION);
+    }
+
+    /**
+     * Makes a table, and first the tables it depends on, unless they
+     *  exist
+     * @param name name of the table
+     */
+    public void generate(String name) throws Exception {
+        if (file(name).exists())
+            return;
+        List<String> dependencies = dependencies(name);
+        int longest = 0;
+        for(String dependency : dependencies) {
+            generate(dependency);
+            longest = Math.max(longest, longestCode(file(dependency)));
+        }
+
+        long start = System.nanoTime();
+        pieces = parse(name);
+        pawns = name.indexOf('P') >= 0;
+        results = new byte[(int)Tablebase.size(pieces.length, pawns)];
+        run(0);
+        // after the last mate of the smaller tables, one ply later for an
+        // en passant capture, the mates of this one end when a ply finds
+        // none
+        for(int ply = 1; ; ply++) {
+            if (ply + 1 > Byte.MAX_VALUE)
+                throw new IllegalStateException(name + ": mates too long");
+            int found = run(ply);
+            if (found == 0 && ply > longest + 1)
+                break;
+        }
+        write(name);
+        results = null;
+        System.out.printf("%s: %.1f s%n", name, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Returns the largest result a table file can hold
+     * @param file the table file
+     * @return largest result, from the bits per position
+     */
+    private static int longestCode(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            if (in.readInt() != Tablebase.MAGIC)
+                throw new IOException("Not a table: " + file);
+            return (1 << in.readInt()) - 1;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Makes one pass over the positions not yet known, split between the
+     *  threads
+     * @param ply 0 to find the illegal and checkmated positions, otherwise
+     *  the plies to mate of the positions to find
+     * @return number of positions found
+     */
+    private int run(final int ply) throws Exception {
+        int chunks = threads * 16;
+        final int chunk = (results.length + chunks - 1) / chunks;
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for(int start = 0; start < results.length; start += chunk) {
+            final int from = start;
+            futures.add(executor.submit(new Callable<Integer>() {
+                public Integer call() {
+                    return new Worker().solve(from,
+                            Math.min(from + chunk, results.length), ply);
+                }
+            }));
+        }
+        int found = 0;
+        for(Future<Integer> future : futures)
+            found += future.get();
+        return found;
+    }
+
+    /**
+     * Writes the table being made, with as many bits for each position as
+     *  its longest mate needs. The file is written under a temporary name
+     *  and renamed, so a table file is always complete.
+     * @param name name of the table
+     */
+    private void write(String name) throws IOException {
+        int longest = 0;
+        int legal = 0;
+        int[] whiteToMove = new int[3];
+        for(int i = 0; i < results.length; i++) {
+            if (results[i] == ILLEGAL)
+                continue;
+            legal++;
+            longest = Math.max(longest, Math.abs(results[i]));
+            if (i < results.length / 2)
+                whiteToMove[Integer.signum(results[i]) + 1]++;
+        }
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(longest));
+
+        // one extra word, so every position can be read with one long
+        long[] words = new long[(int)(((long)results.length * bits + 63) / 64) + 1];
+        for(int i = 0; i < results.length; i++) {
+            long code = results[i] == ILLEGAL ? 0 : Math.abs(results[i]);
+            long bit = (long)i * bits;
+            int word = (int)(bit >>> 6);
+            int shift = 64 - bits - (int)(bit & 63);
+            if (shift >= 0) {
+                words[word] |= code << shift;
+            } else {
+                words[word] |= code >>> -shift;
+                words[word + 1] |= code << (64 + shift);
+            }
+        }
+
+        File temporary = new File(directory, name + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(Tablebase.MAGIC);
+            out.writeInt(bits);
+            for(long word : words)
+                out.writeLong(word);
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file(name)))
+            throw new IOException("Could not write " + file(name));
+
+        System.out.printf("%s: %d legal positions, white to move wins %d, "
+                + "draws %d and loses %d, longest mate %d plies, %d bits%n",
+                name, legal, whiteToMove[2], whiteToMove[1], whiteToMove[0],
+                Math.max(0, longest - 1), bits);
+    }
+
+    /**
+     * Works out the positions of a range of the index. Each thread has its
+     *  own worker, to keep the position being looked at.
+     */
+    private class Worker {
+        // the position
+        private final int[] squares = new int[Tablebase.MAX_PIECES];
+        private boolean whiteToMove;
+        private long occupied;
+        private final long[] occupancy = new long[2];
+        // a position after a move, as the pieces and their squares
+        private final int[] nextPieces = new int[Tablebase.MAX_PIECES];
+        private final int[] nextSquares = new int[Tablebase.MAX_PIECES];
+        // results of the positions after the moves
+        private final int[] nextResults = new int[Board.MAX_MOVES];
+
+        /**
+         * Works out the positions of a range that are not yet known
+         * @param from first index of the range
+         * @param to index after the range
+         * @param ply 0 to find the illegal and checkmated positions,
+         *  otherwise the plies to mate of the positions to find
+         * @return number of positions found
+         */
+        int solve(int from, int to, int ply) {
+            int found = 0;
+            for(int i = from; i < to; i++) {
+                if (results[i] != 0)
+                    continue;
+                if (!decode(i)) {
+                    results[i] = ILLEGAL;
+                    continue;
+                }
+                int side = whiteToMove ? 0 : 1;
+                int count = moves();
+                int result = 0;
+                if (ply == 0) {
+                    if (count == 0 && inCheck(pieces, squares, pieces.length, side))
+                        result = -1;
+                } else if (ply % 2 == 1) {
+                    // won if a move leads to a loss of the opponent
+                    for(int j = 0; j < count && result == 0; j++)
+                        if (nextResults[j] == -ply)
+                            result = ply + 1;
+                } else if (count > 0) {
+                    // lost if every move leads to a win of the opponent,
+                    // the slowest of which takes one ply less
+                    int slowest = 0;
+                    for(int j = 0; j < count && slowest >= 0; j++)
+                        slowest = nextResults[j] > 0 ?
+                                Math.max(slowest, nextResults[j]) : -1;
+                    if (slowest == ply)
+                        result = -(ply + 1);
+                }
+                if (result != 0) {
+                    results[i] = (byte)result;
+                    found++;
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Sets up a position from its index
+         * @param index index of the position in the table
+         * @return false if the position is illegal: two pieces on a
+         *  square, a pawn on the first or last rank, or the side that has
+         *  just moved in check
+         */
+        private boolean decode(long index) {
+            for(int i = pieces.length - 1; i > 0; i--) {
+                squares[i] = (int)(index & 63);
+                index >>>= 6;
+            }
+            int[] kings = Tablebase.kingSquares(pawns);
+            squares[0] = kings[(int)(index % kings.length)];
+            whiteToMove = index < kings.length;
+
+            occupied = 0;
+            occupancy[0] = 0;
+            occupancy[1] = 0;
+            for(int i = 0; i < pieces.length; i++) {
+                long bit = 1L << squares[i];
+                if ((occupied & bit) != 0)
+                    return false;
+                if (pieces[i] % 6 == PackedMove.PAWN &&
+                        (Squares.y(squares[i]) == 0 || Squares.y(squares[i]) == 7))
+                    return false;
+                occupied |= bit;
+                occupancy[pieces[i] / 6] |= bit;
+            }
+            return !inCheck(pieces, squares, pieces.length, whiteToMove ? 1 : 0);
+        }
+
+        /**
+         * Makes every legal move of the position and stores the result of
+         *  the position after it in nextResults
+         * @return number of legal moves
+         */
+        private int moves() {
+            int side = whiteToMove ? 0 : 1;
+            int count = 0;
+            for(int i = 0; i < pieces.length; i++) {
+                if (pieces[i] / 6 != side)
+                    continue;
+                int sq = squares[i];
+                long targets;
+                switch (pieces[i] % 6) {
+                    case PackedMove.PAWN:
+                        count = pawnMoves(i, count);
+                        continue;
+                    case PackedMove.KNIGHT:
+                        targets = Attacks.KNIGHT[sq];
+                        break;
+                    case PackedMove.BISHOP:
+                        targets = Attacks.bishop(sq, occupied);
+                        break;
+                    case PackedMove.ROOK:
+                        targets = Attacks.rook(sq, occupied);
+                        break;
+                    case PackedMove.QUEEN:
+                        targets = Attacks.queen(sq, occupied);
+                        break;
+                    default:
+                        targets = Attacks.KING[sq];
+                }
+                targets &= ~occupancy[side];
+                while (targets != 0) {
+                    int to = Long.numberOfTrailingZeros(targets);
+                    targets &= targets - 1;
+                    int result = move(i, to, pieces[i] % 6);
+                    if (result != ILLEGAL)
+                        nextResults[count++] = result;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Makes the legal moves of a pawn
+         * @param i index of the pawn
+         * @param count number of moves made so far
+         * @return number of moves made, with those of the pawn
+         */
+        private int pawnMoves(int i, int count) {
+            int side = pieces[i] / 6;
+            int sq = squares[i];
+            int forward = side == 0 ? -8 : 8;
+            int lastRank = side == 0 ? 0 : 7;
+            long targets = Attacks.PAWN[side][sq] & occupancy[1 - side];
+            if ((occupied & (1L << (sq + forward))) == 0) {
+                targets |= 1L << (sq + forward);
+                int two = sq + 2 * forward;
+                if (Squares.y(sq) == (side == 0 ? 6 : 1) &&
+                        (occupied & (1L << two)) == 0) {
+                    int result = move(i, two, PackedMove.PAWN);
+                    if (result != ILLEGAL)
+                        nextResults[count++] = enPassant(i, two, result);
+                }
+            }
+            while (targets != 0) {
+                int to = Long.numberOfTrailingZeros(targets);
+                targets &= targets - 1;
+                if (Squares.y(to) != lastRank) {
+                    int result = move(i, to, PackedMove.PAWN);
+                    if (result != ILLEGAL)
+                        nextResults[count++] = result;
+                    continue;
+                }
+                for(int type : PROMOTIONS) {
+                    int result = move(i, to, type);
+                    if (result != ILLEGAL)
+                        nextResults[count++] = result;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Makes a move and looks up the result of the position after it,
+         *  in this table or, after a capture or a promotion, in a smaller
+         *  one
+         * @param i index of the moving piece
+         * @param to square moved to
+         * @param type type of the piece after the move
+         * @return result for the opponent, ILLEGAL if the move leaves the
+         *  king of the moving side in check
+         */
+        private int move(int i, int to, int type) {
+            int side = pieces[i] / 6;
+            boolean changed = type != pieces[i] % 6;
+            int count = 0;
+            for(int j = 0; j < pieces.length; j++) {
+                if (j != i && squares[j] == to) {
+                    changed = true;
+                    continue;
+                }
+                nextPieces[count] = j == i ? side * 6 + type : pieces[j];
+                nextSquares[count++] = j == i ? to : squares[j];
+            }
+            if (inCheck(nextPieces, nextSquares, count, side))
+                return ILLEGAL;
+            if (!changed)
+                return results[(int)Tablebase.index(nextSquares, count,
+                        !whiteToMove, pawns)];
+            return probe(count, !whiteToMove);
+        }
+
+        /**
+         * Lets the opponent capture a pawn that has moved two squares en
+         *  passant, if an enemy pawn stands next to it
+         * @param i index of the pawn
+         * @param to square the pawn moved to
+         * @param result result for the opponent of the position after the
+         *  move, without the capture
+         * @return result for the opponent, with the capture if it is better
+         *  for the opponent
+         */
+        private int enPassant(int i, int to, int result) {
+            int side = pieces[i] / 6;
+            for(int j = 0; j < pieces.length; j++) {
+                if (pieces[j] != (1 - side) * 6 + PackedMove.PAWN ||
+                        Squares.y(squares[j]) != Squares.y(to) ||
+                        Math.abs(squares[j] - to) != 1)
+                    continue;
+                // the enemy pawn moves behind the pawn, which is removed
+                int count = 0;
+                for(int k = 0; k < pieces.length; k++) {
+                    if (k == i)
+                        continue;
+                    nextPieces[count] = pieces[k];
+                    nextSquares[count++] = k == j ? (squares[i] + to) / 2 : squares[k];
+                }
+                if (inCheck(nextPieces, nextSquares, count, 1 - side))
+                    continue;
+                result = better(result, back(probe(count, whiteToMove)));
+            }
+            return result;
+        }
+
+        /**
+         * Looks up the position in nextPieces in the tables made so far
+         * @param count number of pieces
+         * @param white true if white is to move
+         * @return result of the position
+         */
+        private int probe(int count, boolean white) {
+            int result = tablebase.probe(nextPieces, nextSquares, count, white);
+            if (result == Tablebase.UNKNOWN)
+                throw new IllegalStateException("Missing table for " +
+                        canonical(nextPieces, count));
+            return result;
+        }
+
+        /**
+         * Checks if the king of a side is attacked
+         * @param pcs the pieces
+         * @param sqs the squares of the pieces
+         * @param count number of pieces
+         * @param side color.ordinal() of the king
+         * @return true if the king is in check
+         */
+        private boolean inCheck(int[] pcs, int[] sqs, int count, int side) {
+            long occ = 0;
+            int king = 0;
+            for(int i = 0; i < count; i++) {
+                occ |= 1L << sqs[i];
+                if (pcs[i] == side * 6 + PackedMove.KING)
+                    king = sqs[i];
+            }
+            long bit = 1L << king;
+            for(int i = 0; i < count; i++) {
+                if (pcs[i] / 6 == side)
+                    continue;
+                int sq = sqs[i];
+                long attacks;
+                switch (pcs[i] % 6) {
+                    case PackedMove.PAWN:
+                        attacks = Attacks.PAWN[1 - side][sq];
+                        break;
+                    case PackedMove.KNIGHT:
+                        attacks = Attacks.KNIGHT[sq];
+                        break;
+                    case PackedMove.BISHOP:
+                        attacks = Attacks.bishop(sq, occ);
+                        break;
+                    case PackedMove.ROOK:
+                        attacks = Attacks.rook(sq, occ);
+                        break;
+                    case PackedMove.QUEEN:
+                        attacks = Attacks.queen(sq, occ);
+                        break;
+                    default:
+                        attacks = Attacks.KING[sq];
+                }
+                if ((attacks & bit) != 0)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the result of a position for the side that moved into it
+     * @param result result for the side to move
+     * @return result one ply earlier, for the other side
+     */
+    private static int back(int result) {
+        if (result > 0)
+            return -(result + 1);
+        if (result < 0)
+            return 1 - result;
+        return 0;
+    }
+
+    /**
+     * Returns the better of two results for the side to move, as far as
+     *  the results known so far tell: the faster win, or else the slower
+     *  loss if both are losses. A draw or a result not yet known makes a
+     *  loss no better than unknown.
+     * @param a first result
+     * @param b second result
+     * @return the better result, 0 if it is not yet known
+     */
+    private static int better(int a, int b) {
+        if (a > 0 && b > 0)
+            return Math.min(a, b);
+        if (a > 0 || b > 0)
+            return Math.max(a, b);
+        if (a < 0 && b < 0)
+            return Math.min(a, b);
+        return 0;
+    }
+}
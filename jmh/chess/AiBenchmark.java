@@ -0,0 +1,104 @@
+package chess;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the ai: the evaluation of positions and the search for a
+ * move to a fixed depth in each of the saved games.
+ * @author Paul
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AiBenchmark {
+
+    /**
+     * State of the evaluation benchmark: all the test positions and an
+     *  ai to evaluate them with
+     */
+    @State(Scope.Thread)
+    public static class EvaluationState {
+        List<Board> boards;
+        Ai ai;
+
+        /**
+         * Loads the positions
+         */
+        @Setup
+        public void setup() throws Exception {
+            boards = Positions.all();
+            ai = new Ai(Piece.Color.White, 1);
+        }
+    }
+
+    /**
+     * State of the search benchmark: a saved game and a new ai for every
+     *  search, so no results are kept from the previous search
+     */
+    @State(Scope.Thread)
+    public static class SearchState {
+        @Param({"ai_easy_black", "ai_easy_white", "ai_normal_black",
+            "ai_normal_white", "castling", "check", "en_passant",
+            "move_patterns", "pawn_promotion"})
+        public String save;
+
+        @Param({"4"})
+        public int depth;
+
+        Board board;
+        Ai ai;
+
+        /**
+         * Loads the saved game
+         */
+        @Setup(Level.Trial)
+        public void load() throws Exception {
+            board = Positions.load(save);
+        }
+
+        /**
+         * Creates the ai. Its transposition table is kept small, so the
+         *  allocation of the table does not hide the allocation of the
+         *  search itself.
+         */
+        @Setup(Level.Invocation)
+        public void createAi() {
+            ai = new Ai(board.getTurn(), depth);
+            ai.setHashSize(1);
+        }
+    }
+
+    /**
+     * Evaluates every test position
+     */
+    @Benchmark
+    public void valueOfBoard(EvaluationState state, Blackhole bh) {
+        for(Board b : state.boards)
+            bh.consume(state.ai.valueOfBoard(b));
+    }
+
+    /**
+     * Searches for the best move in a saved game
+     * @return the move found
+     */
+    @Benchmark
+    public Move getMove(SearchState state) {
+        return state.ai.getMove(state.board);
+    }
+}
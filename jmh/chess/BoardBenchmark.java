@@ -0,0 +1,108 @@
+package chess;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the board operations used by the move generation and the
+ * user interface. Every operation covers all the test positions of
+ * Positions, so the results are comparable between runs and between
+ * versions of the engine.
+ * Board.doMove() is measured through tryMove(), which makes the move on a
+ * copy of the board; doMove() itself changes the board, so it cannot be
+ * repeated on the same position.
+ * @author Paul
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    private List<Board> boards;
+    // moves of the color to move, by board, without checking for check
+    private List<List<Move>> pseudoLegalMoves;
+    // legal moves of the color to move, by board
+    private List<List<Move>> legalMoves;
+
+    /**
+     * Loads the positions and generates their moves
+     */
+    @Setup
+    public void setup() throws Exception {
+        boards = Positions.all();
+        pseudoLegalMoves = new ArrayList<List<Move>>();
+        legalMoves = new ArrayList<List<Move>>();
+        for(Board b : boards) {
+            List<Move> moves = new ArrayList<Move>();
+            for(Piece pc : b.getPieces())
+                if (pc.getColor() == b.getTurn())
+                    moves.addAll(pc.getValidMoves(b, false));
+            pseudoLegalMoves.add(moves);
+            legalMoves.add(b.getLegalMoves(b.getTurn()));
+        }
+    }
+
+    /**
+     * Looks up the piece on every square
+     */
+    @Benchmark
+    public void getPieceAt(Blackhole bh) {
+        for(Board b : boards)
+            for(int sq = 0; sq < 64; sq++)
+                bh.consume(b.getPieceAt(sq));
+    }
+
+    /**
+     * Checks every move for leaving the king of the moving color in check
+     */
+    @Benchmark
+    public void movePutsKingInCheck(Blackhole bh) {
+        for(int i = 0; i < boards.size(); i++) {
+            Board b = boards.get(i);
+            for(Move m : pseudoLegalMoves.get(i))
+                bh.consume(b.movePutsKingInCheck(m, b.getTurn()));
+        }
+    }
+
+    /**
+     * Makes every legal move on a copy of the board with doMove()
+     */
+    @Benchmark
+    public void tryMove(Blackhole bh) {
+        for(int i = 0; i < boards.size(); i++) {
+            Board b = boards.get(i);
+            for(Move m : legalMoves.get(i))
+                bh.consume(b.tryMove(m));
+        }
+    }
+
+    /**
+     * Makes and takes back every legal move in place, as the search does
+     */
+    @Benchmark
+    public void makeUnmakeMove(Blackhole bh) {
+        for(int i = 0; i < boards.size(); i++) {
+            Board b = boards.get(i);
+            for(Move m : legalMoves.get(i)) {
+                b.makeMove(m);
+                bh.consume(b.getHashKey());
+                b.unmakeMove();
+            }
+        }
+    }
+}
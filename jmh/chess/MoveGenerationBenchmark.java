@@ -0,0 +1,75 @@
+package chess;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of Piece.getValidMoves() for each type of piece. Every
+ * operation generates the moves of all the pieces of the type that belong
+ * to the color to move, in all the test positions of Positions.
+ * @author Paul
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGenerationBenchmark {
+
+    // type of the pieces, as given by Piece.getImageNumber()
+    @Param({"0", "1", "2", "3", "4", "5"})
+    public int type;
+
+    private List<Board> boards;
+    // the pieces of the type that can move, with the board of each
+    private List<Piece> pieces;
+    private List<Board> pieceBoards;
+
+    /**
+     * Loads the positions and finds the pieces of the type
+     */
+    @Setup
+    public void setup() throws Exception {
+        boards = Positions.all();
+        pieces = new ArrayList<Piece>();
+        pieceBoards = new ArrayList<Board>();
+        for(Board b : boards)
+            for(Piece pc : b.getPieces())
+                if (pc.getImageNumber() == type && pc.getColor() == b.getTurn()) {
+                    pieces.add(pc);
+                    pieceBoards.add(b);
+                }
+    }
+
+    /**
+     * Generates the legal moves of the pieces
+     */
+    @Benchmark
+    public void legalMoves(Blackhole bh) {
+        for(int i = 0; i < pieces.size(); i++)
+            bh.consume(pieces.get(i).getValidMoves(pieceBoards.get(i), true));
+    }
+
+    /**
+     * Generates the moves of the pieces without checking for check
+     */
+    @Benchmark
+    public void pseudoLegalMoves(Blackhole bh) {
+        for(int i = 0; i < pieces.size(); i++)
+            bh.consume(pieces.get(i).getValidMoves(pieceBoards.get(i), false));
+    }
+}
@@ -0,0 +1,67 @@
+package chess;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Test positions for the JMH benchmarks: the starting position and the
+ * saved games in the SAVES folder. The benchmarks are run from the project
+ * folder, so the saves are found by a relative path.
+ * @author Paul
+ */
+final class Positions {
+
+    private static final String DIRECTORY = "SAVES";
+
+    private Positions() {
+    }
+
+    /**
+     * Returns the starting position and all the saved games that are not
+     *  over, in the order of their file names
+     * @return list of boards
+     */
+    static List<Board> all() throws Exception {
+        List<Board> boards = new ArrayList<Board>();
+        boards.add(new Board(true));
+        File[] saves = new File(DIRECTORY).listFiles();
+        if (saves == null)
+            throw new IllegalStateException("No saves found in " +
+                    new File(DIRECTORY).getAbsolutePath());
+        Arrays.sort(saves);
+        for(File f : saves) {
+            Board b = read(f);
+            if (!b.gameOver())
+                boards.add(b);
+        }
+        return boards;
+    }
+
+    /**
+     * Returns a saved game
+     * @param name name of the save without the "test_" prefix and the
+     *  extension, such as "castling"
+     * @return the board of the save
+     */
+    static Board load(String name) throws Exception {
+        return read(new File(DIRECTORY, "test_" + name + ".CSV"));
+    }
+
+    /**
+     * Reads a board from a save file
+     * @param f save file
+     * @return the board
+     */
+    private static Board read(File f) throws Exception {
+        ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f));
+        try {
+            return (Board)ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+}
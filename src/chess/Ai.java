@@ -2,15 +2,97 @@ package chess;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
 import java.io.Serializable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import jdk.jfr.FlightRecorder;
 /**
  * Contains AI logic for the chess game
  * @author Paul
  */
 public class Ai implements Serializable{
+    private static final long serialVersionUID = -3005878791884078107L;
+    
+    // transposition table size used when none has been set
+    public static final int DEFAULT_HASH_SIZE = 16;
+    // plies the ai ponders beyond its own depth
+    public static final int PONDER_DEPTH = 2;
+    // value of a position the tablebases know is won, less the plies to
+    // the mate, so that faster mates are preferred
+    static final int TABLEBASE_WIN = Integer.MAX_VALUE / 2;
+    
+    /**
+     * Ways of searching with more than one thread
+     */
+    public static enum ParallelMode {
+        // the moves of the ai are split between the threads
+        RootSplit,
+        // every thread searches all the moves, sharing results through
+        // the transposition table
+        LazySmp
+    }
     
     private Piece.Color aiColor;
     private int depth;
+    // size of the transposition table in megabytes
+    private int hashSize = DEFAULT_HASH_SIZE;
+    // number of threads searching the moves of the ai
+    private int threads = 1;
+    private ParallelMode parallelMode = ParallelMode.LazySmp;
+    
+    // search budget per move, 0 for no limit
+    private long timeLimit = 0;
+    private long nodeLimit = 0;
+    
+    // terms added to the board's material score, created when first needed
+    private ArrayList<EvaluationTerm> terms = null;
+    
+    // results of earlier searches, created when first needed
+    private transient TranspositionTable table = null;
+    // search of the calling thread, keeps its history between moves
+    private transient Search search = null;
+    // threads for searching in parallel
+    private transient ForkJoinPool pool = null;
+    // searches of the threads of the pool in a root split search, one for
+    // each thread, made again along with the search of the calling thread
+    private transient ThreadLocal<Search> workerSearches = null;
+    // counts the iterations of root split searches, so the searches of the
+    // threads are reset once for each
+    private transient int rootSplitIteration = 0;
+    // moves played without a search in the opening, null if none
+    private transient OpeningBook book = null;
+    // chooses between the moves of the book, created when first needed
+    private transient Random random = null;
+    // whether the last move returned by getMove() came from the book
+    private transient boolean inBook = false;
+    // results of endgames with few pieces, null if none
+    private transient Tablebase tablebase = null;
+    
+    // result of the last pondering: the position searched, and the best
+    // move found and the depth it was found at. ponderKey is 0 if there
+    // is no result.
+    private transient long ponderKey = 0;
+    private transient int ponderMove;
+    private transient int ponderDepth;
+    
+    // state of the current search
+    private transient long deadline;
+    private transient long maxNodes;
+    private transient AtomicLong nodes;
+    private transient volatile boolean aborted;
+    // statistics of the last search
+    private transient SearchStats stats = null;
+    // thread that called getMove(), interrupting it stops the search
+    private transient Thread caller = null;
+    // receives the progress of searches, null if none
+    private transient SearchListener listener = null;
 
     /**
      * Creates a new AI object
@@ -22,6 +104,224 @@ public class Ai implements Serializable{
         this.depth = depth;
     }
     
+    /**
+     * Returns the depth the ai searches to
+     * @return depth in plies
+     */
+    public int getDepth() {
+        return depth;
+    }
+    
+    /**
+     * Sets a listener to be told of the progress of each search. The
+     *  listener is not saved with the ai.
+     * @param listener listener to call, null for none
+     */
+    public void setSearchListener(SearchListener listener) {
+        this.listener = listener;
+    }
+    
+    /**
+     * Sets the opening book the ai plays from. While the position is in 
+     *  the book, getMove() returns one of its moves without a search. The
+     *  book is not saved with the ai.
+     * @param book the book, null for none
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+    
+    /**
+     * Returns the opening book the ai plays from
+     * @return the book, null if there is none
+     */
+    public OpeningBook getOpeningBook() {
+        return book;
+    }
+    
+    /**
+     * Sets the endgame tablebases of the ai. In positions of the tables the
+     *  ai plays the fastest win, or the slowest loss, without a search, and
+     *  its searches use the tables for positions with few enough pieces.
+     *  The tablebases are not saved with the ai.
+     * @param tablebase the tablebases, null for none
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    /**
+     * Returns the endgame tablebases of the ai
+     * @return the tablebases, null if there are none
+     */
+    public Tablebase getTablebase() {
+        return tablebase;
+    }
+    
+    /**
+     * Tells whether the last move returned by getMove() was taken from the
+     *  opening book. Once it is false the ai has left the book, and its
+     *  moves are searched for.
+     * @return true if the last move was a book move
+     */
+    public boolean isInBook() {
+        return inBook;
+    }
+    
+    /**
+     * Sets the size of the transposition table used by the search.
+     *  Discards the results stored so far.
+     * @param megabytes memory to use for the table
+     */
+    public void setHashSize(int megabytes) {
+        this.hashSize = megabytes;
+        this.table = null;
+        this.search = null;
+    }
+    
+    /**
+     * Returns the size of the transposition table
+     * @return table size in megabytes
+     */
+    public int getHashSize() {
+        // ai objects from old save files have no size set
+        return hashSize > 0 ? hashSize : DEFAULT_HASH_SIZE;
+    }
+    
+    /**
+     * Sets the number of threads used to search for a move. With more than
+     *  one thread, the search is run in parallel as set by setParallelMode(),
+     *  each thread on its own copy of the board.
+     * @param threads number of threads, 1 to search on the calling thread
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+    
+    /**
+     * Returns the number of threads used to search for a move
+     * @return number of threads
+     */
+    public int getThreads() {
+        // ai objects from old save files have no thread count set
+        return Math.max(threads, 1);
+    }
+    
+    /**
+     * Sets how the search is run when there is more than one thread. 
+     *  With RootSplit, the moves of the ai are split between the threads.
+     *  With LazySmp, helper threads run the same iterative deepening search
+     *  as the calling thread, starting at staggered depths, and only share
+     *  their results through the transposition table.
+     * @param mode parallel search mode
+     */
+    public void setParallelMode(ParallelMode mode) {
+        this.parallelMode = mode;
+    }
+    
+    /**
+     * Returns how the search is run when there is more than one thread
+     * @return parallel search mode
+     */
+    public ParallelMode getParallelMode() {
+        // ai objects from old save files have no mode set
+        return parallelMode != null ? parallelMode : ParallelMode.LazySmp;
+    }
+    
+    /**
+     * Creates the transposition table and starts the threads of the search,
+     *  which are otherwise made by the first search for a move
+     */
+    public void prepareSearch() {
+        if (table == null)
+            table = new TranspositionTable(getHashSize());
+        if (getThreads() == 1)
+            return;
+        
+        // the calling thread searches too, except in a root split search
+        int parallelism = getParallelMode() == ParallelMode.RootSplit ?
+                getThreads() : getThreads() - 1;
+        ForkJoinPool workers = getPool(parallelism);
+        // every thread of the pool is started to run one of the tasks,
+        // as none of them ends before all have begun
+        final CountDownLatch started = new CountDownLatch(parallelism);
+        for(int i = 0; i < parallelism; i++) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        started.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        workers.awaitQuiescence(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+    
+    /**
+     * Ends the threads of the search. A later search starts them again.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+    
+    /**
+     * Sets the wall-clock time the ai may use to choose a move. The search
+     *  deepens one ply at a time up to the ai's depth, and stops when the 
+     *  time runs out.
+     * @param milliseconds time limit per move, 0 for no limit
+     */
+    public void setTimeLimit(long milliseconds) {
+        this.timeLimit = milliseconds;
+    }
+    
+    /**
+     * Sets the number of positions the ai may search to choose a move.
+     * @param nodes node limit per move, 0 for no limit
+     */
+    public void setNodeLimit(long nodes) {
+        this.nodeLimit = nodes;
+    }
+    
+    /**
+     * Returns the terms of the evaluation, added to the material and 
+     *  piece-square score of the board. The list may be changed to add,
+     *  remove or tune terms between searches. Holds a MobilityTerm by
+     *  default.
+     * @return the evaluation terms
+     */
+    public List<EvaluationTerm> getTerms() {
+        // ai objects from old save files have no terms set
+        if (terms == null) {
+            terms = new ArrayList<EvaluationTerm>();
+            terms.add(new MobilityTerm());
+        }
+        return terms;
+    }
+    
+    /**
+     * Returns the number of positions searched by the last call to getMove()
+     * @return number of nodes searched
+     */
+    public long getNodeCount() {
+        return nodes == null ? 0 : nodes.get();
+    }
+    
+    /**
+     * Returns the statistics of the last call to getMove(), counted by all
+     *  the threads that searched
+     * @return statistics of the last search, null if there has been none
+     */
+    public SearchStats getStats() {
+        return stats;
+    }
+    
     /**
      * Returns the color of the pieces the AI controls
      * @return color of the AI pieces
@@ -34,6 +334,17 @@ public class Ai implements Serializable{
      * Returns a move for the ai to make based on a min/max algorithm
      *  with alpha-beta pruning. Based on generic pseudocode explanation of
      *  algorithm from http://ai-depot.com/articles/minimax-explained/
+     *  The search is iteratively deepened one ply at a time up to the ai's
+     *  depth. If the time or node limit is reached, the search is stopped
+     *  and the best move of the deepest completed iteration is returned.
+     *  Moves are made and taken back on the given board during the search,
+     *  it is in its original state when the method returns.
+     *  Interrupting the calling thread stops the search as if the time
+     *  had run out. Only one search may run on an ai at a time.
+     *  If the ai has pondered on the position at least to its depth, see
+     *  ponder(), the move found then is returned without a search. So is
+     *  a move of the opening book, if the ai has one and the position is
+     *  in it, and the best move of the tablebases in an endgame they hold.
      * @param game current state of the board
      * @return best move
      */
@@ -44,117 +355,432 @@ public class Ai implements Serializable{
         // if it isn't the ai's turn, return null
         if (game.getTurn() != aiColor)
             return null;
-        // initialize best value and best move variables
-        int bestValue = Integer.MIN_VALUE;
-        Move bestMove = null;
-        
-        // get the best move for the ai (max) from the available moves
-        for (Move m : getMoves(game)) {
-            // get the value of the move (min)
-            int moveValue = min(game.tryMove(m), depth - 1, bestValue, Integer.MAX_VALUE);
+        
+        inBook = false;
+        if (book != null) {
+            long start = System.nanoTime();
+            if (random == null)
+                random = new Random();
+            Move move = book.getMove(game, random);
+            if (move != null) {
+                ponderKey = 0;
+                inBook = true;
+                nodes = new AtomicLong();
+                stats = new SearchStats();
+                stats.setTime(System.nanoTime() - start);
+                return move;
+            }
+        }
+        
+        // the tablebases know the best move
+        long tablebaseStart = System.nanoTime();
+        int tablebaseMove = tablebaseMove(game);
+        if (tablebaseMove != 0) {
+            ponderKey = 0;
+            nodes = new AtomicLong();
+            stats = new SearchStats();
+            stats.setTime(System.nanoTime() - tablebaseStart);
+            return game.decodeMove(tablebaseMove);
+        }
+        
+        // the opponent made the reply the ai pondered on. The move was 
+        // searched on the opponent's time, so nothing is counted for it.
+        long ponderStart = System.nanoTime();
+        if (ponderKey != 0 && ponderKey == game.getHashKey() && 
+                ponderDepth >= depth) {
+            ponderKey = 0;
+            nodes = new AtomicLong();
+            stats = new SearchStats();
+            stats.setTime(System.nanoTime() - ponderStart);
+            return game.decodeMove(ponderMove);
+        }
+        ponderKey = 0;
+        
+        // results of earlier moves make way for the ones of this search
+        if (table != null)
+            table.newGeneration();
+        int bestMove = search(game, depth, true);
+        return bestMove == 0 ? null : game.decodeMove(bestMove);
+    }
+    
+    /**
+     * Thinks about the ai's next move on the opponent's time. The reply 
+     *  the ai expects, the best reply found by its last search, is made
+     *  and the position after it is searched as by getMove(), but 
+     *  PONDER_DEPTH plies deeper and without the time and node limits.
+     *  The search runs until it is done or the calling thread is
+     *  interrupted. If the opponent makes the expected reply, getMove() 
+     *  returns the move found at once, if the pondering got as deep as the
+     *  ai's own search would. Otherwise the results stored in the 
+     *  transposition table still speed up the search.
+     * @param game state of the board after the ai's move, with the 
+     *  opponent to move. It is in its original state when the method 
+     *  returns.
+     * @return the expected reply, null if none was known and nothing was
+     *  searched
+     */
+    public Move ponder(Board game) {
+        ponderKey = 0;
+        if (game == null || game.getTurn() == aiColor || table == null)
+            return null;
+        
+        // the best move stored for the position is the expected reply
+        int reply = 0;
+        int key = TranspositionTable.move(table.probe(game.getHashKey()));
+        int[] moves = new int[Board.MAX_MOVES];
+        int count = game.generateMoves(moves, 0);
+        for(int i = 0; i < count && key != 0; i++)
+            if (PackedMove.key(moves[i]) == key)
+                reply = moves[i];
+        if (reply == 0)
+            return null;
+        
+        Move expected = game.decodeMove(reply);
+        game.makeMove(reply);
+        int bestMove = search(game, depth + PONDER_DEPTH, false);
+        // only a move from a completed iteration can be played
+        if (bestMove != 0 && stats.getIterations() > 0) {
+            ponderKey = game.getHashKey();
+            ponderMove = bestMove;
+            ponderDepth = stats.getIterations();
+        }
+        game.unmakeMove();
+        return expected;
+    }
+    
+    /**
+     * Searches for the best move of the ai, deepening the search one ply
+     *  at a time. Each completed iteration and the whole search are
+     *  recorded as IterationEvent and SearchEvent while Java Flight
+     *  Recorder runs.
+     * @param game current state of the board, with the ai to move
+     * @param maxDepth depth of the last iteration
+     * @param limited true to stop at the time and node limits
+     * @return best move, 0 if the ai has no moves
+     */
+    private int search(Board game, int maxDepth, boolean limited) {
+        if (table == null)
+            table = new TranspositionTable(getHashSize());
+        if (search == null) {
+            search = new Search(this, table, new int[2][64 * 64]);
+            workerSearches = new ThreadLocal<Search>();
+        }
+        search.newPosition();
+        
+        int[] moves = new int[Board.MAX_MOVES];
+        int count = game.generateMoves(moves, 0);
+        if (count == 0)
+            return 0;
+        
+        // the first event loads Flight Recorder, so events are only made
+        // once it has been started
+        SearchEvent searchEvent = null;
+        if (FlightRecorder.isInitialized()) {
+            searchEvent = new SearchEvent();
+            searchEvent.begin();
+        }
+        long start = System.nanoTime();
+        deadline = limited && timeLimit > 0 ? start + timeLimit * 1000000 : 0;
+        maxNodes = limited ? nodeLimit : 0;
+        nodes = new AtomicLong();
+        aborted = false;
+        stats = new SearchStats();
+        caller = Thread.currentThread();
+        
+        boolean rootSplit = getThreads() > 1 
+                && getParallelMode() == ParallelMode.RootSplit;
+        List<HelperSearch> helpers = new ArrayList<HelperSearch>();
+        if (getThreads() > 1 && !rootSplit)
+            helpers = startHelpers(game, moves, count, maxDepth);
+        
+        int bestMove = 0;
+        for (int iteration = 1; iteration <= maxDepth; iteration++) {
+            IterationEvent iterationEvent = null;
+            if (searchEvent != null) {
+                iterationEvent = new IterationEvent();
+                iterationEvent.begin();
+            }
+            long iterationStart = System.nanoTime();
+            long nodesBefore = nodes.get();
+            int m;
+            if (rootSplit)
+                m = searchParallel(game, moves, count, iteration);
+            else
+                m = search.searchRoot(game, moves, count, iteration);
+            search.flushNodes();
             
-            // if the value is > than bestValue, current move is best
-            if (moveValue > bestValue || bestValue == Integer.MIN_VALUE) {
-                bestValue = moveValue;
-                bestMove = m;
+            // a stopped iteration is only used if none were completed
+            if (aborted) {
+                if (bestMove == 0)
+                    bestMove = m;
+                break;
+            }
+            bestMove = m;
+            stats.addIteration(System.nanoTime() - iterationStart, 
+                    nodes.get() - nodesBefore);
+            if (iterationEvent != null) {
+                iterationEvent.depth = iteration;
+                iterationEvent.nodes = stats.getIterationNodes(iteration);
+                iterationEvent.commit();
             }
+            if (listener != null)
+                listener.iterationCompleted(stats);
+            
+            // search the best move first in the next iteration
+            moveToFront(moves, count, bestMove);
+        }
+        
+        // the result of the calling thread is used, the helpers are done
+        for(HelperSearch helper : helpers)
+            helper.search.cancel();
+        for(HelperSearch helper : helpers)
+            helper.join();
+        addStats(search);
+        stats.setTime(System.nanoTime() - start);
+        if (searchEvent != null) {
+            searchEvent.set(stats);
+            searchEvent.threads = getThreads();
+            searchEvent.commit();
         }
         
+        // the limits ran out before any move was evaluated
+        if (bestMove == 0)
+            bestMove = moves[0];
+        
         return bestMove;
     }
     
     /**
-     * Returns the value of the best move for the ai for the given board
-     * @param game game state after the the last player move
-     * @param depth current depth of the analysis
-     * @param alpha best max move
-     * @param beta best min move
-     * @return value of the move
+     * Finds the best move in a position of the tablebases: the fastest win,
+     *  or else a draw, or else the slowest loss
+     * @param game current state of the board, with the ai to move
+     * @return the move, 0 if the position or one of the positions after a
+     *  move is not in the tablebases
      */
-    private int max(Board game, int depth, int alpha, int beta) {
-        // end search if game over or depth limit reached
-        if (depth == 0)
-            return valueOfBoard(game);
-
-        List<Move> possibleMoves = getMoves(game);
-
-        // if no moves can be made, game has ended
-        if (possibleMoves.size() == 0)
-            return valueOfBoard(game);
-
-        // get the best move for the ai (max) from the available moves
-        for(Move m : possibleMoves) {
-            // get the value of the move
-            int moveValue = min(game.tryMove(m), depth - 1, alpha, beta);
+    private int tablebaseMove(Board game) {
+        if (probeTablebase(game) == Tablebase.UNKNOWN)
+            return 0;
+        
+        int[] moves = new int[Board.MAX_MOVES];
+        int count = game.generateMoves(moves, 0);
+        int bestMove = 0;
+        int bestRank = Integer.MIN_VALUE;
+        for(int i = 0; i < count; i++) {
+            game.makeMove(moves[i]);
+            int result = probeTablebase(game);
+            game.unmakeMove();
+            if (result == Tablebase.UNKNOWN)
+                return 0;
             
-            // see if it is better than previous best move
-            if (moveValue > alpha) {
-                alpha = moveValue;
-            }            
-            // if the alpha value (value of the best move found for the ai by
-            // this method) is greater than the beta value (the best move for 
-            // the opponent so far found by the min method that called this
-            // method) then we know that the min method will not choose this
-            // path and we can stop the search
-            if (alpha >= beta)
-                return alpha;
+            // the result is the opponent's. Wins rank above draws and
+            // draws above losses, then faster wins and slower losses first.
+            int rank;
+            if (result < 0)
+                rank = 1000 + result;
+            else if (result > 0)
+                rank = result - 1000;
+            else
+                rank = 0;
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestMove = moves[i];
+            }
         }
-
-        return alpha;
+        return bestMove;
     }
     
     /**
-     * Returns the value of the best move for the player for the given board
-     * @param game game state after the last ai move
-     * @param depth current depth of the analysis
-     * @param alpha best max move
-     * @param beta best min move
-     * @return value of the move
+     * Looks up a position in the tablebases of the ai
+     * @param game the position
+     * @return result as by Tablebase.probe(), UNKNOWN if the ai has no 
+     *  tablebases or the position has too many pieces for them
      */
-    private int min(Board game, int depth, int alpha, int beta) {
-        // end search if game over or depth limit reached
-        if (depth == 0)
-            return valueOfBoard(game);
-
-        List<Move> possibleMoves = getMoves(game);
-
-        // if no moves can be made, game has ended
-        if (possibleMoves.size() == 0)
-            return valueOfBoard(game);
-
-        // get the best move for the player (min) from the available moves
-        for(Move m : possibleMoves) {
-            int moveValue = max(game.tryMove(m), depth - 1, alpha, beta);
-            if (moveValue < beta) {
-                beta = moveValue;
-            }             
-            // if the alpha value (best move found for the ai so far by the
-            // max method that called this method) is greater than the beta 
-            // value (best move found for the opponent by this method) then
-            // we know that the max method will not choose this path and we
-            // can stop the search.
-            if (alpha >= beta)
-                return beta;
-        }       
-        return beta;
-    }
-    
-    /**
-     * Returns all the possible moves for the board.
-     * @param game Board to get moves for
-     * @return list of possible moves.
-     */
-    private List<Move> getMoves(Board game) {
-        // initialize an arraylist
-        List<Move> moves = new ArrayList<Move>();
-        
-        // for each piece
-        for (Piece p : game.getPieces())
-            // of the color that moves next
-            if (p.getColor() == game.getTurn())
-                // add all valid moves to the list
-                moves.addAll(p.getValidMoves(game, true));
-        return moves;
+    int probeTablebase(Board game) {
+        return probeTablebase(game, new int[Tablebase.MAX_PIECES], 
+                new int[Tablebase.MAX_PIECES]);
+    }
+    
+    /**
+     * Looks up a position in the tablebases of the ai, listing its pieces
+     *  in buffers of the caller
+     * @param game the position
+     * @param pieces buffer for the pieces, Tablebase.MAX_PIECES long
+     * @param squares buffer for their squares, Tablebase.MAX_PIECES long
+     * @return result as by probeTablebase(Board)
+     */
+    int probeTablebase(Board game, int[] pieces, int[] squares) {
+        if (tablebase == null || 
+                Long.bitCount(game.getOccupied()) > Tablebase.MAX_PIECES)
+            return Tablebase.UNKNOWN;
+        return tablebase.probe(game, pieces, squares);
+    }
+    
+    /**
+     * Calculates the value of a position for the ai from its result in the
+     *  tablebases
+     * @param game the position
+     * @param result result as by Tablebase.probe()
+     * @param ply distance of the position from the root of the search
+     * @return value of the position, higher for faster wins of the ai
+     */
+    int valueOfTablebase(Board game, int result, int ply) {
+        if (result == 0)
+            return 0;
+        int value = TABLEBASE_WIN - ply - Math.abs(result);
+        if (result < 0)
+            value = -value;
+        return game.getTurn() == aiColor ? value : -value;
+    }
+    
+    /**
+     * Moves a move to the front of a list of moves, keeping the order of 
+     *  the others
+     * @param moves encoded moves
+     * @param count number of moves
+     * @param move the move to put first
+     */
+    private static void moveToFront(int[] moves, int count, int move) {
+        int i = 0;
+        while (i < count && moves[i] != move)
+            i++;
+        for(; i > 0; i--)
+            moves[i] = moves[i - 1];
+        moves[0] = move;
+    }
+    
+    /**
+     * Searches the moves of the ai in parallel. The first move is searched
+     *  on the calling thread, the rest are then split between the threads of
+     *  the pool. The best value found so far is shared, so later moves can
+     *  still be cut off.
+     * @param game current state of the board
+     * @param moves the moves that can be made, best first
+     * @param count number of moves
+     * @param depth depth of the search
+     * @return best move, 0 if the search was stopped before any move
+     *  was searched
+     */
+    private int searchParallel(Board game, int[] moves, int count, int depth) {
+        ForkJoinPool workers = getPool(getThreads());
+        
+        int first = search.searchMove(game, moves[0], depth, Integer.MIN_VALUE);
+        if (aborted)
+            return 0;
+        AtomicInteger alpha = new AtomicInteger(first);
+        
+        rootSplitIteration++;
+        List<RootMoveTask> tasks = new ArrayList<RootMoveTask>();
+        for(int i = 1; i < count; i++) {
+            RootMoveTask task = new RootMoveTask(game, moves[i], depth, alpha,
+                    rootSplitIteration);
+            tasks.add(task);
+            workers.execute(task);
+        }
+        
+        // the earliest of the moves with the highest value is chosen, 
+        // as it would be by a search on a single thread
+        int bestValue = first;
+        int bestMove = moves[0];
+        for(int i = 0; i < tasks.size(); i++) {
+            int value = tasks.get(i).join();
+            if (tasks.get(i).completed && value > bestValue) {
+                bestValue = value;
+                bestMove = moves[i + 1];
+            }
+        }
+        return bestMove;
+    }
+    
+    /**
+     * Starts the helper threads of a lazy SMP search. Every helper searches 
+     *  all the moves on its own copy of the board, deepening one ply at a 
+     *  time like the calling thread. Every other helper starts one ply 
+     *  deeper, so the threads do not all search the same positions at the 
+     *  same time.
+     * @param game current state of the board
+     * @param moves the moves that can be made
+     * @param count number of moves
+     * @param maxDepth depth of the last iteration
+     * @return the started helpers
+     */
+    private List<HelperSearch> startHelpers(Board game, int[] moves, int count,
+            int maxDepth) {
+        ForkJoinPool workers = getPool(getThreads() - 1);
+        
+        List<HelperSearch> helpers = new ArrayList<HelperSearch>();
+        for(int i = 0; i < getThreads() - 1; i++) {
+            HelperSearch helper = new HelperSearch(game, moves, count, 
+                    1 + (i + 1) % 2, maxDepth);
+            helpers.add(helper);
+            workers.execute(helper);
+        }
+        return helpers;
+    }
+    
+    /**
+     * Returns the search of the current thread of the pool, made the first
+     *  time the thread needs one and reset for each iteration
+     * @param iteration number of the root split iteration
+     * @return search of the thread
+     */
+    private Search workerSearch(int iteration) {
+        Search s = workerSearches.get();
+        if (s == null) {
+            s = new Search(this, table, new int[2][64 * 64]);
+            workerSearches.set(s);
+        }
+        s.startIteration(search, iteration);
+        return s;
+    }
+    
+    /**
+     * Returns the pool of threads for searching in parallel. A pool of
+     *  another size is shut down and replaced, its threads end once they
+     *  are idle.
+     * @param parallelism number of threads in the pool
+     * @return thread pool
+     */
+    private ForkJoinPool getPool(int parallelism) {
+        if (pool == null || pool.getParallelism() != parallelism) {
+            if (pool != null)
+                pool.shutdown();
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+    
+    /**
+     * Adds the statistics counted by a search to those of the current search
+     * @param s search of one of the threads
+     */
+    private void addStats(Search s) {
+        synchronized (stats) {
+            stats.takeCounts(s.getStats());
+        }
+    }
+    
+    /**
+     * Adds searched nodes to the count of the current search, and stops the
+     * search if it has run out of time or nodes or the calling thread has
+     * been interrupted
+     * @param count number of nodes searched
+     */
+    void countNodes(int count) {
+        long total = nodes.addAndGet(count);
+        if (maxNodes > 0 && total > maxNodes)
+            aborted = true;
+        else if (deadline != 0 && System.nanoTime() - deadline > 0)
+            aborted = true;
+        else if (caller.isInterrupted())
+            aborted = true;
+    }
+    
+    /**
+     * Checks if the current search has been stopped
+     * @return true if the search should be stopped
+     */
+    boolean isStopped() {
+        return aborted;
     }
     
     /**
@@ -162,65 +788,40 @@ public class Ai implements Serializable{
      * @param gameBoard Board to evaluate
      * @return value of the board
      */
-    private int valueOfBoard(Board gameBoard) {
-        int value = 0;
-        int aiPieces = 0;
-        int aiMoves = 0;
-        int playerPieces = 0;
-        int playerMoves = 0;
-        int aiCaptures = 0;
-        int playerCaptures = 0;
-        
-        // give the board state a value based on the number of pieces on the
-        // board and the number of available moves 
-
-        for(Piece pc : gameBoard.getPieces())
-            if(pc.getColor() == aiColor) {
-                // account for number of pieces on board
-                aiPieces += valueOfPiece(pc);
-
-                if (aiColor == gameBoard.getTurn())
-                {
-                    List<Move> validMoves = pc.getValidMoves(gameBoard, true);
-                    for(Move m : validMoves) {
-                        // account for how many moves can be made
-                        aiMoves++;
-                        if (m.getCaptured() != null) {
-                            // account for possible captures
-                            aiCaptures += valueOfPiece(m.getCaptured());
-                        }
-                    }
-                }
-            } else {
-                playerPieces += valueOfPiece(pc);
-
-                if (aiColor != gameBoard.getTurn())
-                {
-                    List<Move> validMoves = pc.getValidMoves(gameBoard, true);
-                    for(Move m : validMoves) {
-                        // account for how many moves can be made
-                        playerMoves++;
-                        if (m.getCaptured() != null) {
-                            // account for possible captures
-                            playerCaptures += valueOfPiece(m.getCaptured());
-                        }
-                    }
-                }
-            }
-
-        value = (aiPieces - playerPieces) + (aiMoves - playerMoves)
-                + (aiCaptures - playerCaptures);
-
-        // if a side can make no valid moves, the game is over
-        if (gameBoard.getTurn() == aiColor && aiMoves == 0)
-            // if the ai can make no moves, it has lost. this is bad.
-            value = Integer.MIN_VALUE;
-        else if (gameBoard.getTurn() != aiColor && playerMoves == 0)
-            // if the player can make no more moves, we win. this is good.
-            value = Integer.MAX_VALUE;
+    int valueOfBoard(Board gameBoard) {
+        // a side in check with no moves has lost. Moves are only counted
+        // when in check, which keeps the evaluation cheap.
+        Piece checked = gameBoard.getPieceInCheck();
+        if (checked != null && checked.getColor() == gameBoard.getTurn() &&
+                gameBoard.countLegalMoves() == 0)
+            return valueOfGameOver(gameBoard);
         
-
-        return value;
+        // give the board state a value based on the pieces on the board, 
+        // where they stand and the evaluation terms. Possible captures are
+        // left to the quiescence search.
+        
+        // the board keeps the material and square scores up to date
+        int value = gameBoard.getScore();
+        List<EvaluationTerm> evaluationTerms = getTerms();
+        for(int i = 0; i < evaluationTerms.size(); i++)
+            value += evaluationTerms.get(i).evaluate(gameBoard);
+        
+        // scores are from white's side
+        return aiColor == Piece.Color.White ? value : -value;
+    }
+    
+    /**
+     * Returns the value of a board where the side to move can make no
+     *  moves, and has lost the game
+     * @param gameBoard Board to evaluate
+     * @return value of the board
+     */
+    int valueOfGameOver(Board gameBoard) {
+        if (gameBoard.getTurn() == aiColor)
+            // if the ai can make no moves, it has lost. this is bad.
+            return Integer.MIN_VALUE;
+        // if the player can make no more moves, we win. this is good.
+        return Integer.MAX_VALUE;
     }
        
     /**
@@ -228,7 +829,123 @@ public class Ai implements Serializable{
      * @param pc piece to evaluate
      * @return value of the piece 
      */
-    private int valueOfPiece(Piece pc) {
-        return (int)Math.pow(pc.getImageNumber() + 1, 3) * 100;
+    int valueOfPiece(Piece pc) {
+        return valueOfPiece(pc.getImageNumber());
+    }
+    
+    /**
+     * A method for evaluating the value of a type of piece
+     * @param type type of the piece, as given by Piece.getImageNumber()
+     * @return value of the piece 
+     */
+    int valueOfPiece(int type) {
+        return Evaluation.MG_VALUE[type];
+    }
+    
+    /**
+     * Searches one move of the ai on its own copy of the board
+     */
+    private class RootMoveTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = -8141080360585254535L;
+        
+        private final Board game;
+        private final int move;
+        private final int depth;
+        private final AtomicInteger alpha;
+        private final int iteration;
+        
+        // true if the move was searched without the search being stopped
+        private volatile boolean completed = false;
+        
+        /**
+         * Creates a new task
+         * @param game current state of the board, copied by the task
+         * @param move move to search
+         * @param depth depth of the search
+         * @param alpha best value found so far, shared between the tasks
+         * @param iteration number of the root split iteration
+         */
+        RootMoveTask(Board game, int move, int depth, AtomicInteger alpha,
+                int iteration) {
+            this.game = game;
+            this.move = move;
+            this.depth = depth;
+            this.alpha = alpha;
+            this.iteration = iteration;
+        }
+        
+        /**
+         * Searches the move and raises the shared best value if it is beaten
+         * @return value of the move
+         */
+        @Override
+        protected Integer compute() {
+            Board copy = game.clone();
+            Search helper = workerSearch(iteration);
+            
+            // searching just below the best value tells apart moves that
+            // are as good as it from the ones that are worse
+            int best = alpha.get();
+            int value = helper.searchMove(copy, move, depth,
+                    best == Integer.MIN_VALUE ? best : best - 1);
+            helper.flushNodes();
+            addStats(helper);
+            if (aborted)
+                return value;
+            
+            completed = true;
+            int current = alpha.get();
+            while (value > current && !alpha.compareAndSet(current, value))
+                current = alpha.get();
+            return value;
+        }
+    }
+    
+    /**
+     * Runs a helper thread of a lazy SMP search on its own copy of the board,
+     * until it is cancelled or reaches the depth of the search
+     */
+    private class HelperSearch extends RecursiveAction {
+        private static final long serialVersionUID = -1709370648805124599L;
+        
+        private final Board game;
+        private final int[] moves;
+        private final int startDepth;
+        private final int maxDepth;
+        private final Search search;
+        
+        /**
+         * Creates a new helper. The board and moves are copied on the 
+         * calling thread, as they change once the search goes on.
+         * @param game current state of the board
+         * @param moves the moves that can be made
+         * @param count number of moves
+         * @param startDepth depth of the first iteration
+         * @param maxDepth depth of the last iteration
+         */
+        HelperSearch(Board game, int[] moves, int count, int startDepth, 
+                int maxDepth) {
+            this.game = game.clone();
+            this.moves = Arrays.copyOf(moves, count);
+            this.startDepth = startDepth;
+            this.maxDepth = maxDepth;
+            this.search = new Search(Ai.this, table, Ai.this.search.copyHistory());
+        }
+        
+        /**
+         * Deepens the search one ply at a time, searching the best move
+         * of each iteration first in the next
+         */
+        @Override
+        protected void compute() {
+            for(int iteration = startDepth; iteration <= maxDepth; iteration++) {
+                int m = search.searchRoot(game, moves, moves.length, iteration);
+                if (search.isStopped())
+                    break;
+                moveToFront(moves, moves.length, m);
+            }
+            search.flushNodes();
+            addStats(search);
+        }
     }
 }
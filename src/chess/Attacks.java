@@ -0,0 +1,259 @@
+package chess;
+
+import java.util.Random;
+
+/**
+ * Precomputed attack masks. Each mask has a bit set for every square 
+ *  attacked from a square, see Board.square(). Used both to generate moves
+ *  and to find the attackers of a square.
+ *  Sliding pieces use magic bitboards: the pieces on the lines of a square
+ *  are multiplied by a magic number, and the top bits of the product index
+ *  a table of attack masks for that square. The magic numbers below were
+ *  found by findMagic() from its fixed seed. They are checked when the 
+ *  tables are filled, and searched for again if one does not fit.
+ * @author Paul
+ */
+final class Attacks {
+
+    // squares a knight attacks, by square
+    static final long[] KNIGHT = new long[64];
+    // squares a king attacks, by square
+    static final long[] KING = new long[64];
+    // squares a pawn attacks, by color.ordinal() and square. A pawn of
+    // one color attacks a square exactly when a pawn of the other color on
+    // that square would attack it back.
+    static final long[][] PAWN = new long[2][64];
+    
+    // squares whose pieces can block a rook or bishop, by square. The last
+    // square of each line is left out, as nothing behind it can be blocked.
+    private static final long[] ROOK_MASK = new long[64];
+    private static final long[] BISHOP_MASK = new long[64];
+    // magic numbers and shifts that map blockers to a table index
+    private static final long[] ROOK_MAGIC = {
+        0x0A80001080244000L, 0x8440049000200240L, 0xA080200080100008L,
+        0x4300086205001000L, 0x66002004700A0008L, 0x3200081001040200L,
+        0x3080008002000100L, 0x0E00004081082204L, 0x1400800080304000L,
+        0x1020401000200040L, 0x4000801000802000L, 0x0002000C20401200L,
+        0x0020800400800800L, 0x0080800400800200L, 0x4004001008020481L,
+        0x0140800040800100L, 0x00C0828000204000L, 0x0040010020408901L,
+        0x0841010040200010L, 0x240012000A420021L, 0x1200808004000800L,
+        0x0002010100040008L, 0x0200040002011008L, 0x8090020000A04104L,
+        0x0200400080008020L, 0x0200400180200080L, 0x2440410100200010L,
+        0x2090100080080080L, 0x0002050100080010L, 0x8B0A000200100804L,
+        0x0200100400020108L, 0xC1C2050600004084L, 0x0020800101002040L,
+        0x2000804000802010L, 0x2400820042002011L, 0x1000201001000904L,
+        0x8041001005000800L, 0x4000040080800200L, 0x0002005812000401L,
+        0xA0408004C0800B00L, 0x0410400080288000L, 0x127002432004C000L,
+        0x2C80408208220010L, 0x8409042010010008L, 0x0000080004008080L,
+        0x0084000402008080L, 0x0418902221240008L, 0x80021302408A0004L,
+        0x0540002080104080L, 0x20200040100020C0L, 0x0040100020048480L,
+        0x4440080080100080L, 0x0802050010080100L, 0x0348020004008080L,
+        0x8001001402005100L, 0x0882800100004080L, 0x2001008000204011L,
+        0x4082014303142082L, 0x8040090520001041L, 0x001221005000C805L,
+        0x0201001002040801L, 0x1002001001040882L, 0x8000109022010804L,
+        0xA02201108C004022L
+    };
+    private static final long[] BISHOP_MAGIC = {
+        0x4641140404004014L, 0x8142220809011000L, 0x4030530200701218L,
+        0x00022082000C0480L, 0x8004042124000080L, 0x02AA080208800048L,
+        0x030A011C82404008L, 0x0000104804500800L, 0x0840081044008400L,
+        0xC101040108020084L, 0x0060080811002200L, 0x0000242401800042L,
+        0x0030011040000000L, 0x0208008804400800L, 0x0000040148080484L,
+        0x0000008208010402L, 0x0010210644100400L, 0x0010008801082080L,
+        0x180A480800810200L, 0x0400800802044400L, 0x8202140401200000L,
+        0x501200414804242CL, 0x0441014C48080480L, 0x0802282844141400L,
+        0x01044011A0020400L, 0x4030280830018101L, 0x0000881010004010L,
+        0x0001040080440080L, 0x0110030004200802L, 0x0140420100411008L,
+        0x000C028222621042L, 0x6822004804884804L, 0x4008200418122400L,
+        0xC002121001210144L, 0x4207080101020400L, 0x7422020082180080L,
+        0x2054050201240048L, 0x100604010000B000L, 0x141401104B020805L,
+        0x00042100223A0082L, 0x2004042008880400L, 0x0004024802020480L,
+        0x008100128A003001L, 0x1000002018000100L, 0x1082011024000080L,
+        0x8820081000200112L, 0x104870210C400200L, 0x011C010408388100L,
+        0x2C00880802100200L, 0x890044008410A800L, 0x0051021042084006L,
+        0x1410011084044000L, 0x1000001002088004L, 0x2006202411820000L,
+        0x00C0032204130A00L, 0x0820640420444080L, 0x1200208808084208L,
+        0xA000404058084822L, 0x5000010042080420L, 0x84100E9041228800L,
+        0x0000240040028210L, 0x0000002104010200L, 0x01A0441418882102L,
+        0x0108103040802080L
+    };
+    private static final int[] ROOK_SHIFT = new int[64];
+    private static final int[] BISHOP_SHIFT = new int[64];
+    // attack masks by square and table index
+    private static final long[][] ROOK_ATTACKS = new long[64][];
+    private static final long[][] BISHOP_ATTACKS = new long[64][];
+    
+    static {
+        int whiteForward = Squares.offset(0, -1);
+        int blackForward = Squares.offset(0, 1);
+        for(int sq = 0; sq < 64; sq++) {
+            for(int i = 0; i < 8; i++) {
+                KNIGHT[sq] |= mask(Squares.step(sq, Squares.KNIGHT_OFFSETS[i]));
+                KING[sq] |= mask(Squares.step(sq, Squares.RAY_OFFSETS[i]));
+            }
+            for(int side = -1; side <= 1; side += 2) {
+                PAWN[Piece.Color.White.ordinal()][sq] |=
+                        mask(Squares.step(sq, whiteForward + side));
+                PAWN[Piece.Color.Black.ordinal()][sq] |=
+                        mask(Squares.step(sq, blackForward + side));
+            }
+        }
+        
+        // a fixed seed finds the same magic numbers on every run, if any
+        // need to be searched for
+        Random random = new Random(0x5DEECE66DL);
+        for(int sq = 0; sq < 64; sq++) {
+            ROOK_MASK[sq] = blockerMask(sq, 0, 4);
+            BISHOP_MASK[sq] = blockerMask(sq, 4, 8);
+            ROOK_SHIFT[sq] = 64 - Long.bitCount(ROOK_MASK[sq]);
+            BISHOP_SHIFT[sq] = 64 - Long.bitCount(BISHOP_MASK[sq]);
+            ROOK_ATTACKS[sq] = new long[1 << Long.bitCount(ROOK_MASK[sq])];
+            BISHOP_ATTACKS[sq] = new long[1 << Long.bitCount(BISHOP_MASK[sq])];
+            ROOK_MAGIC[sq] = findMagic(sq, ROOK_MASK[sq], ROOK_MAGIC[sq], 
+                    0, 4, ROOK_ATTACKS[sq], random);
+            BISHOP_MAGIC[sq] = findMagic(sq, BISHOP_MASK[sq], BISHOP_MAGIC[sq],
+                    4, 8, BISHOP_ATTACKS[sq], random);
+        }
+    }
+    
+    private Attacks() {
+    }
+    
+    /**
+     * Returns the squares a rook attacks
+     * @param sq square of the rook
+     * @param occupied all occupied squares
+     * @return attacked squares, including the first piece on each line
+     */
+    static long rook(int sq, long occupied) {
+        return ROOK_ATTACKS[sq][(int)(((occupied & ROOK_MASK[sq]) 
+                * ROOK_MAGIC[sq]) >>> ROOK_SHIFT[sq])];
+    }
+    
+    /**
+     * Returns the squares a bishop attacks
+     * @param sq square of the bishop
+     * @param occupied all occupied squares
+     * @return attacked squares, including the first piece on each line
+     */
+    static long bishop(int sq, long occupied) {
+        return BISHOP_ATTACKS[sq][(int)(((occupied & BISHOP_MASK[sq]) 
+                * BISHOP_MAGIC[sq]) >>> BISHOP_SHIFT[sq])];
+    }
+    
+    /**
+     * Returns the squares a queen attacks
+     * @param sq square of the queen
+     * @param occupied all occupied squares
+     * @return attacked squares, including the first piece on each line
+     */
+    static long queen(int sq, long occupied) {
+        return rook(sq, occupied) | bishop(sq, occupied);
+    }
+    
+    /**
+     * Finds a magic number that maps every set of blockers of a square to
+     *  a table index without mixing up blockers with different attacks, and
+     *  fills the table
+     * @param sq square of the sliding piece
+     * @param mask squares whose pieces can block the piece
+     * @param candidate magic number to try first
+     * @param firstRay first ray of the piece in Squares.RAY_OFFSETS
+     * @param lastRay ray after the last ray of the piece
+     * @param table table to fill, with a slot for every set of blockers
+     * @param random source of candidate numbers
+     * @return the magic number
+     */
+    private static long findMagic(int sq, long mask, long candidate, 
+            int firstRay, int lastRay, long[] table, Random random) {
+        int shift = 64 - Long.bitCount(mask);
+        long[] blockers = new long[table.length];
+        long[] attacks = new long[table.length];
+        
+        // walk through every subset of the mask
+        long subset = 0L;
+        for(int i = 0; i < table.length; i++) {
+            blockers[i] = subset;
+            attacks[i] = slidingAttacks(sq, subset, firstRay, lastRay);
+            subset = (subset - mask) & mask;
+        }
+        
+        // the attempt that last wrote each slot, so the table does not 
+        // need clearing between candidates
+        int[] attempts = new int[table.length];
+        for(int attempt = 1; ; attempt++) {
+            // after the candidate, try random numbers with few bits set,
+            // which make good magic numbers
+            long magic = candidate;
+            if (attempt > 1) {
+                magic = random.nextLong() & random.nextLong() & random.nextLong();
+                if (Long.bitCount((mask * magic) >>> 56) < 6)
+                    continue;
+            }
+            
+            boolean found = true;
+            for(int i = 0; i < table.length && found; i++) {
+                int index = (int)((blockers[i] * magic) >>> shift);
+                if (attempts[index] != attempt) {
+                    attempts[index] = attempt;
+                    table[index] = attacks[i];
+                } else if (table[index] != attacks[i]) {
+                    found = false;
+                }
+            }
+            if (found)
+                return magic;
+        }
+    }
+    
+    /**
+     * Returns the squares whose pieces can block a sliding piece
+     * @param sq square of the piece
+     * @param firstRay first ray of the piece in Squares.RAY_OFFSETS
+     * @param lastRay ray after the last ray of the piece
+     * @return mask of the squares
+     */
+    private static long blockerMask(int sq, int firstRay, int lastRay) {
+        long mask = 0L;
+        for(int ray = firstRay; ray < lastRay; ray++) {
+            int offset = Squares.RAY_OFFSETS[ray];
+            for(int to = Squares.step(sq, offset); to != Squares.OFF_BOARD &&
+                    Squares.step(to, offset) != Squares.OFF_BOARD; 
+                    to = Squares.step(to, offset))
+                mask |= 1L << to;
+        }
+        return mask;
+    }
+    
+    /**
+     * Returns the squares a sliding piece attacks by walking its rays
+     * @param sq square of the piece
+     * @param occupied occupied squares
+     * @param firstRay first ray of the piece in Squares.RAY_OFFSETS
+     * @param lastRay ray after the last ray of the piece
+     * @return attacked squares, including the first piece on each ray
+     */
+    private static long slidingAttacks(int sq, long occupied, int firstRay, 
+            int lastRay) {
+        long attacks = 0L;
+        for(int ray = firstRay; ray < lastRay; ray++) {
+            int offset = Squares.RAY_OFFSETS[ray];
+            for(int to = Squares.step(sq, offset); to != Squares.OFF_BOARD; 
+                    to = Squares.step(to, offset)) {
+                attacks |= 1L << to;
+                if ((occupied & (1L << to)) != 0)
+                    break;
+            }
+        }
+        return attacks;
+    }
+    
+    /**
+     * Returns a square as a mask
+     * @param sq square index, or Squares.OFF_BOARD
+     * @return mask of the square, 0 if it is off the board
+     */
+    private static long mask(int sq) {
+        return sq == Squares.OFF_BOARD ? 0L : 1L << sq;
+    }
+}
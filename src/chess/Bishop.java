@@ -1,6 +1,5 @@
 package chess;
 
-import java.awt.Point;
 import java.util.List;
 import java.util.ArrayList;
 import java.awt.image.BufferedImage;
@@ -9,30 +8,32 @@ import java.awt.image.BufferedImage;
  * @author Paul
  */
 public class Bishop extends Piece{
+    private static final long serialVersionUID = 6107985472945054987L;
+
        
     private final int imageNumber = 2;
     
     /**
      * Creates a new bishop
-     * @param location location of the piece
+     * @param square square of the piece
      * @param color color of the piece
      */
-    public Bishop(Point location, Color color) {
+    public Bishop(int square, Color color) {
         this.numMoves = 0;
         this.color = color;
-        this.location = location;
+        this.square = square;
     }
 
     /**
      * Private constructor used for making copies of the piece
-     * @param location location of the piece
+     * @param square square of the piece
      * @param color color of the piece
      * @param moves the number of moves made by the piece
      */
-    private Bishop(Point location, Color color, int moves) {
+    private Bishop(int square, Color color, int moves) {
         this.numMoves = moves;
         this.color = color;
-        this.location = location;
+        this.square = square;
     }
     
     /**
@@ -63,8 +64,7 @@ public class Bishop extends Piece{
      * @return a copy of the bishop
      */
     public Piece clone() {
-        return new Bishop(new Point(this.location.x, this.location.y),
-                this.color, this.numMoves);
+        return new Bishop(this.square, this.color, this.numMoves);
     }
     
     /**
@@ -81,50 +81,28 @@ public class Bishop extends Piece{
         if (board == null)
             return moves;
         
-        // add moves in diagonal lines to the list
-        addMovesInLine(board, moves, 1, 1);
-        addMovesInLine(board, moves, -1, 1);
-        addMovesInLine(board, moves, 1, -1);
-        addMovesInLine(board, moves, -1, -1);
-
-        // check that move doesn't put own king in check
+        // legal moves are generated by the board, which finds pins and
+        // checks once for all the pieces
         if (checkKing)
-            for(int i = 0; i < moves.size(); i++)
-                if (board.movePutsKingInCheck(moves.get(i), this.color)) {
-                    // if move would put king it check, it is invalid and
-                    // is removed from the list
-                    moves.remove(moves.get(i));
-                    // iterator is decremented due to the size of the list
-                    // decreasing.
-                    i--;
-                }
+            return board.getLegalMoves(this);
+        
+        // add moves to the attacked squares that do not hold a piece of
+        // the same color
+        addMoves(board, moves, Attacks.bishop(square, board.getOccupied()));
+
         return moves;
     }
     
     /**
-     * Adds valid moves in a straight line to the list
+     * Adds valid moves to the attacked squares to the list
      * @param moves list to add to
-     * @param xi x direction of line (-1/0/1)
-     * @param yi y direction of line (-1/0/1)
+     * @param attacks squares attacked by the piece
      */
-    private void addMovesInLine(Board board, List<Move> moves, int xi, int yi) {
-        int x = location.x;
-        int y = location.y;
-        
-        Point pt = new Point(x + xi, y + yi);
-        Piece pc;
-        
-        while(board.validLocation(pt)) {
-            pc = board.getPieceAt(pt);
-            if(pc == null) {
-                moves.add(new Move(this, pt, pc));
-            } else if(pc.getColor() != this.color) {
-                moves.add(new Move(this, pt, pc));
-                break;
-            } else {
-                break;
-            }
-            pt = new Point(pt.x + xi, pt.y + yi);
+    private void addMoves(Board board, List<Move> moves, long attacks) {
+        attacks &= ~board.getOccupancy(this.color);
+        for(; attacks != 0; attacks &= attacks - 1) {
+            int sq = Long.numberOfTrailingZeros(attacks);
+            moves.add(new Move(this, sq, board.getPieceAt(sq)));
         }
     }
 }
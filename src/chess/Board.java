@@ -1,15 +1,32 @@
 package chess;
 
 import java.io.Serializable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.awt.Point;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
- * Contains all the game pieces and general game rule logic
+ * Contains all the game pieces and general game rule logic.
+ *  Occupancy is tracked with bitboards, one 64-bit mask per piece type and
+ *  color, and a 64-slot mailbox maps each square to the piece on it.
+ *  Square indices run from 0 (x = 0, y = 0) to 63 (x = 7, y = 7),
+ *  i.e. square = y * 8 + x. The position is identified by a Zobrist key
+ *  that is updated incrementally as moves are made.
+ *  The search generates and makes moves encoded as ints by PackedMove;
+ *  Move objects are created from them for the user interface.
  * @author Paul
  */
 public class Board implements Serializable, Cloneable {
+    // serialVersionUID of the original Board class, keeps old saves loadable
+    private static final long serialVersionUID = -2817137762649982829L;
+    
+    // most legal moves there can be in a position, the size a move buffer
+    // needs for generateMoves()
+    public static final int MAX_MOVES = 256;
+    
     private Board previousState = null;
     private Piece.Color turn;
     private List<Piece> pieces = new ArrayList<Piece>();
@@ -18,6 +35,28 @@ public class Board implements Serializable, Cloneable {
     private Piece lastMoved = null;
     private Ai ai = null;
     
+    // bitboards indexed by color.ordinal() * 6 + piece.getImageNumber()
+    private transient long[] bitboards = new long[12];
+    // occupancy masks indexed by color.ordinal()
+    private transient long[] occupancy = new long[2];
+    // all occupied squares
+    private transient long occupied = 0L;
+    // the piece on each square, null if empty
+    private transient Piece[] squares = new Piece[64];
+    
+    // Zobrist key of the position
+    private transient long hashKey = 0L;
+    
+    // middlegame and endgame scores of the pieces, white's advantage, and
+    // the game phase, see Evaluation
+    private transient int mgScore = 0;
+    private transient int egScore = 0;
+    private transient int phase = 0;
+    
+    // records of the moves made with makeMove(), for unmakeMove()
+    private transient MoveUndo[] undoStack = null;
+    private transient int undoCount = 0;
+    
     /**
      * Sets an Ai for the board
      * @param computerPlayer
@@ -58,43 +97,147 @@ public class Board implements Serializable, Cloneable {
         turn = Piece.Color.White;
         
         if (initPieces) {        
-            // black pieces
-            pieces.add(new Pawn(new Point(0, 1), Piece.Color.Black));
-            pieces.add(new Pawn(new Point(1, 1), Piece.Color.Black));
-            pieces.add(new Pawn(new Point(2, 1), Piece.Color.Black));
-            pieces.add(new Pawn(new Point(3, 1), Piece.Color.Black));
-            pieces.add(new Pawn(new Point(4, 1), Piece.Color.Black));
-            pieces.add(new Pawn(new Point(5, 1), Piece.Color.Black));
-            pieces.add(new Pawn(new Point(6, 1), Piece.Color.Black));
-            pieces.add(new Pawn(new Point(7, 1), Piece.Color.Black));
+            // black pieces, placed by square index y * 8 + x
+            pieces.add(new Pawn(8, Piece.Color.Black));
+            pieces.add(new Pawn(9, Piece.Color.Black));
+            pieces.add(new Pawn(10, Piece.Color.Black));
+            pieces.add(new Pawn(11, Piece.Color.Black));
+            pieces.add(new Pawn(12, Piece.Color.Black));
+            pieces.add(new Pawn(13, Piece.Color.Black));
+            pieces.add(new Pawn(14, Piece.Color.Black));
+            pieces.add(new Pawn(15, Piece.Color.Black));
 
-            pieces.add(new Rook(new Point(0, 0), Piece.Color.Black));
-            pieces.add(new Knight(new Point(1, 0), Piece.Color.Black));
-            pieces.add(new Bishop(new Point(2, 0), Piece.Color.Black));
-            pieces.add(new Queen(new Point(3, 0), Piece.Color.Black));
-            pieces.add(new King(new Point(4, 0), Piece.Color.Black));
-            pieces.add(new Bishop(new Point(5, 0), Piece.Color.Black));
-            pieces.add(new Knight(new Point(6, 0), Piece.Color.Black));
-            pieces.add(new Rook(new Point(7, 0), Piece.Color.Black));
+            pieces.add(new Rook(0, Piece.Color.Black));
+            pieces.add(new Knight(1, Piece.Color.Black));
+            pieces.add(new Bishop(2, Piece.Color.Black));
+            pieces.add(new Queen(3, Piece.Color.Black));
+            pieces.add(new King(4, Piece.Color.Black));
+            pieces.add(new Bishop(5, Piece.Color.Black));
+            pieces.add(new Knight(6, Piece.Color.Black));
+            pieces.add(new Rook(7, Piece.Color.Black));
 
             // white pieces
-            pieces.add(new Pawn(new Point(0, 6), Piece.Color.White));
-            pieces.add(new Pawn(new Point(1, 6), Piece.Color.White));
-            pieces.add(new Pawn(new Point(2, 6), Piece.Color.White));
-            pieces.add(new Pawn(new Point(3, 6), Piece.Color.White));
-            pieces.add(new Pawn(new Point(4, 6), Piece.Color.White));
-            pieces.add(new Pawn(new Point(5, 6), Piece.Color.White));
-            pieces.add(new Pawn(new Point(6, 6), Piece.Color.White));
-            pieces.add(new Pawn(new Point(7, 6), Piece.Color.White));
+            pieces.add(new Pawn(48, Piece.Color.White));
+            pieces.add(new Pawn(49, Piece.Color.White));
+            pieces.add(new Pawn(50, Piece.Color.White));
+            pieces.add(new Pawn(51, Piece.Color.White));
+            pieces.add(new Pawn(52, Piece.Color.White));
+            pieces.add(new Pawn(53, Piece.Color.White));
+            pieces.add(new Pawn(54, Piece.Color.White));
+            pieces.add(new Pawn(55, Piece.Color.White));
 
-            pieces.add(new Rook(new Point(0, 7), Piece.Color.White));
-            pieces.add(new Knight(new Point(1, 7), Piece.Color.White));
-            pieces.add(new Bishop(new Point(2, 7), Piece.Color.White));
-            pieces.add(new Queen(new Point(3, 7), Piece.Color.White));
-            pieces.add(new King(new Point(4, 7), Piece.Color.White));
-            pieces.add(new Bishop(new Point(5, 7), Piece.Color.White));
-            pieces.add(new Knight(new Point(6, 7), Piece.Color.White));
-            pieces.add(new Rook(new Point(7, 7), Piece.Color.White));
+            pieces.add(new Rook(56, Piece.Color.White));
+            pieces.add(new Knight(57, Piece.Color.White));
+            pieces.add(new Bishop(58, Piece.Color.White));
+            pieces.add(new Queen(59, Piece.Color.White));
+            pieces.add(new King(60, Piece.Color.White));
+            pieces.add(new Bishop(61, Piece.Color.White));
+            pieces.add(new Knight(62, Piece.Color.White));
+            pieces.add(new Rook(63, Piece.Color.White));
+        }
+        
+        rebuildIndex();
+    }
+    
+    /**
+     * Creates a board from a position in Forsyth-Edwards Notation, such as
+     *  "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1". The move counters at the
+     *  end may be left out and are ignored. The number of moves made by
+     *  the pieces is set to match the castling rights: kings and rooks
+     *  that may castle have not moved, and neither have pawns on their
+     *  starting rank. All other pieces have moved once.
+     * @param fen the position
+     * @return a new board holding the position
+     * @throws IllegalArgumentException if the position cannot be read
+     */
+    public static Board fromFen(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4)
+            throw new IllegalArgumentException("Incomplete FEN: " + fen);
+        
+        Board board = new Board(false);
+        String[] ranks = fields[0].split("/");
+        if (ranks.length != 8)
+            throw new IllegalArgumentException("FEN needs 8 ranks: " + fen);
+        for(int y = 0; y < 8; y++) {
+            int x = 0;
+            for(char c : ranks[y].toCharArray()) {
+                if (c >= '1' && c <= '8') {
+                    x += c - '0';
+                    continue;
+                }
+                Piece pc = x < 8 ? createPiece(c, y * 8 + x) : null;
+                if (pc == null)
+                    throw new IllegalArgumentException("Bad rank in FEN: " + ranks[y]);
+                int pawnRank = pc.getColor() == Piece.Color.White ? 6 : 1;
+                if (!(pc instanceof Pawn && y == pawnRank))
+                    pc.numMoves = 1;
+                board.pieces.add(pc);
+                x++;
+            }
+            if (x != 8)
+                throw new IllegalArgumentException("Bad rank in FEN: " + ranks[y]);
+        }
+        board.rebuildIndex();
+        
+        if (fields[1].equals("b"))
+            board.turn = Piece.Color.Black;
+        else if (!fields[1].equals("w"))
+            throw new IllegalArgumentException("Bad color in FEN: " + fields[1]);
+        
+        // king and rook squares of each castling right
+        if (!fields[2].equals("-")) {
+            for(char c : fields[2].toCharArray()) {
+                int index = "KQkq".indexOf(c);
+                if (index < 0)
+                    throw new IllegalArgumentException("Bad castling in FEN: " + fields[2]);
+                Piece.Color color = index < 2 ? Piece.Color.White : Piece.Color.Black;
+                int kingSquare = index < 2 ? 60 : 4;
+                int rookSquare = kingSquare + (index % 2 == 0 ? 3 : -4);
+                Piece king = board.squares[kingSquare];
+                Piece rook = board.squares[rookSquare];
+                if (!(king instanceof King) || !(rook instanceof Rook) ||
+                        king.getColor() != color || rook.getColor() != color)
+                    throw new IllegalArgumentException("Bad castling in FEN: " + fields[2]);
+                king.numMoves = 0;
+                rook.numMoves = 0;
+            }
+        }
+        
+        // the square passed over by a pawn that just moved two squares
+        if (!fields[3].equals("-")) {
+            int target = Squares.parse(fields[3]);
+            int sq = target + (board.turn == Piece.Color.White ? 8 : -8);
+            Piece pawn = target == Squares.OFF_BOARD || sq < 0 || sq > 63 ? 
+                    null : board.squares[sq];
+            if (!(pawn instanceof Pawn) || pawn.getColor() == board.turn)
+                throw new IllegalArgumentException("Bad en passant in FEN: " + fields[3]);
+            ((Pawn)pawn).enPassantOk = true;
+            board.lastMoved = pawn;
+        }
+        
+        board.rebuildIndex();
+        board.inCheck = board.kingInCheck();
+        return board;
+    }
+    
+    /**
+     * Creates a piece from its letter in Forsyth-Edwards Notation
+     * @param c letter of the piece, upper case for white
+     * @param square square of the piece
+     * @return a new piece, null if the letter is not a piece
+     */
+    private static Piece createPiece(char c, int square) {
+        Piece.Color color = Character.isUpperCase(c) ? 
+                Piece.Color.White : Piece.Color.Black;
+        switch (Character.toLowerCase(c)) {
+            case 'p': return new Pawn(square, color);
+            case 'n': return new Knight(square, color);
+            case 'b': return new Bishop(square, color);
+            case 'r': return new Rook(square, color);
+            case 'q': return new Queen(square, color);
+            case 'k': return new King(square, color);
+            default: return null;
         }
     }
     
@@ -106,19 +249,214 @@ public class Board implements Serializable, Cloneable {
      * @param lastMoved piece to move last
      * @param inCheck king in check
      * @param ai ai present on the board
+     * @param bitboards piece bitboards of the board
+     * @param occupancy occupancy masks of the board
+     * @param occupied all occupied squares of the board
+     * @param hashKey Zobrist key of the board
+     * @param mgScore middlegame score of the board
+     * @param egScore endgame score of the board
+     * @param phase game phase of the board
      */
     private Board(Piece.Color turn, Board previousState, List<Piece> pieces,
-            Piece lastMoved, Piece inCheck, Ai ai) {
+            Piece lastMoved, Piece inCheck, Ai ai, long[] bitboards,
+            long[] occupancy, long occupied, long hashKey, int mgScore,
+            int egScore, int phase) {
         this.turn = turn;
-        if (inCheck != null)
-            this.inCheck = inCheck.clone();
-        if (lastMoved != null)
-            this.lastMoved = lastMoved.clone();
         this.ai = ai;
         this.previousState = previousState;
         for(Piece p : pieces) {
-            this.pieces.add(p.clone());
+            Piece copy = p.clone();
+            copy.listIndex = this.pieces.size();
+            this.pieces.add(copy);
+            this.squares[copy.getSquare()] = copy;
+        }
+        // the king in check and last moved piece refer to the copies
+        if (inCheck != null)
+            this.inCheck = squares[inCheck.getSquare()];
+        if (lastMoved != null)
+            this.lastMoved = squares[lastMoved.getSquare()];
+        this.bitboards = bitboards.clone();
+        this.occupancy = occupancy.clone();
+        this.occupied = occupied;
+        this.hashKey = hashKey;
+        this.mgScore = mgScore;
+        this.egScore = egScore;
+        this.phase = phase;
+    }
+    
+    /**
+     * Restores the transient bitboards and mailbox after the board has been
+     * read from a save file
+     * @param in stream to read from
+     */
+    private void readObject(ObjectInputStream in) 
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        bitboards = new long[12];
+        occupancy = new long[2];
+        squares = new Piece[64];
+        rebuildIndex();
+    }
+    
+    /**
+     * Recalculates all bitboards, the mailbox, the Zobrist key and the 
+     * evaluation scores from the list of pieces
+     */
+    private void rebuildIndex() {
+        for(int i = 0; i < bitboards.length; i++)
+            bitboards[i] = 0L;
+        for(int i = 0; i < squares.length; i++)
+            squares[i] = null;
+        occupancy[0] = 0L;
+        occupancy[1] = 0L;
+        occupied = 0L;
+        hashKey = 0L;
+        mgScore = 0;
+        egScore = 0;
+        phase = 0;
+        
+        for(int i = 0; i < pieces.size(); i++) {
+            pieces.get(i).listIndex = i;
+            indexPiece(pieces.get(i));
+        }
+        hashKey ^= Zobrist.CASTLING[castlingRights()];
+        if (turn == Piece.Color.Black)
+            hashKey ^= Zobrist.BLACK_TO_MOVE;
+    }
+    
+    /**
+     * Adds the piece to the bitboards and the mailbox at its current square
+     * @param pc piece to index
+     */
+    private void indexPiece(Piece pc) {
+        int sq = pc.getSquare();
+        int index = pc.getColor().ordinal() * 6 + pc.getImageNumber();
+        long bit = 1L << sq;
+        squares[sq] = pc;
+        hashKey ^= Zobrist.PIECES[index][sq];
+        if (pc instanceof Pawn && ((Pawn)pc).enPassantOk)
+            hashKey ^= Zobrist.EN_PASSANT[sq % 8];
+        mgScore += Evaluation.MG[index][sq];
+        egScore += Evaluation.EG[index][sq];
+        phase += Evaluation.PHASE[pc.getImageNumber()];
+        bitboards[index] |= bit;
+        occupancy[pc.getColor().ordinal()] |= bit;
+        occupied |= bit;
+    }
+    
+    /**
+     * Removes the piece from the bitboards and the mailbox. Must be called
+     * before the location of the piece changes.
+     * @param pc piece to remove from the index
+     */
+    private void unindexPiece(Piece pc) {
+        int sq = pc.getSquare();
+        int index = pc.getColor().ordinal() * 6 + pc.getImageNumber();
+        long bit = ~(1L << sq);
+        if (squares[sq] == pc)
+            squares[sq] = null;
+        hashKey ^= Zobrist.PIECES[index][sq];
+        if (pc instanceof Pawn && ((Pawn)pc).enPassantOk)
+            hashKey ^= Zobrist.EN_PASSANT[sq % 8];
+        mgScore -= Evaluation.MG[index][sq];
+        egScore -= Evaluation.EG[index][sq];
+        phase -= Evaluation.PHASE[pc.getImageNumber()];
+        bitboards[index] &= bit;
+        occupancy[pc.getColor().ordinal()] &= bit;
+        occupied &= bit;
+    }
+    
+    /**
+     * Returns the square index of a location on the board
+     * @param p location on the board
+     * @return square index, y * 8 + x
+     */
+    public static int square(Point p) {
+        return p.y * 8 + p.x;
+    }
+    
+    /**
+     * Returns the bitboard of the given piece type and color
+     * @param color color of the pieces
+     * @param imageNumber type of the pieces, as given by 
+     *  Piece.getImageNumber()
+     * @return squares occupied by the pieces
+     */
+    public long getBitboard(Piece.Color color, int imageNumber) {
+        return bitboards[color.ordinal() * 6 + imageNumber];
+    }
+    
+    /**
+     * Returns the squares occupied by pieces of the given color
+     * @param color color of the pieces
+     * @return occupancy mask of the color
+     */
+    public long getOccupancy(Piece.Color color) {
+        return occupancy[color.ordinal()];
+    }
+    
+    /**
+     * Returns all the occupied squares on the board
+     * @return occupancy mask of both colors
+     */
+    public long getOccupied() {
+        return occupied;
+    }
+    
+    /**
+     * Returns the Zobrist key of the position. Covers the pieces on the 
+     * board, the color to move, castling rights and en passant captures.
+     * @return 64-bit key of the position
+     */
+    public long getHashKey() {
+        return hashKey;
+    }
+    
+    /**
+     * Returns the material and piece-square score of the position, blended
+     * between its middlegame and endgame values by the pieces left. Kept up
+     * to date as moves are made.
+     * @return score in centipawns, positive if white is ahead
+     */
+    public int getScore() {
+        int mg = Math.min(phase, Evaluation.MAX_PHASE);
+        return (mgScore * mg + egScore * (Evaluation.MAX_PHASE - mg)) 
+                / Evaluation.MAX_PHASE;
+    }
+    
+    /**
+     * Returns the castling rights of both colors, derived from whether the
+     * kings and rooks have moved from their initial squares
+     * @return combination of the Zobrist castling right bits
+     */
+    int castlingRights() {
+        int rights = 0;
+        if (unmoved(60, Piece.Color.White, 5)) {
+            if (unmoved(63, Piece.Color.White, 3))
+                rights |= Zobrist.WHITE_KINGSIDE;
+            if (unmoved(56, Piece.Color.White, 3))
+                rights |= Zobrist.WHITE_QUEENSIDE;
+        }
+        if (unmoved(4, Piece.Color.Black, 5)) {
+            if (unmoved(7, Piece.Color.Black, 3))
+                rights |= Zobrist.BLACK_KINGSIDE;
+            if (unmoved(0, Piece.Color.Black, 3))
+                rights |= Zobrist.BLACK_QUEENSIDE;
         }
+        return rights;
+    }
+    
+    /**
+     * Checks if a square holds a piece that has not moved yet
+     * @param sq square to check
+     * @param color color of the piece
+     * @param imageNumber type of the piece
+     * @return true if such a piece is on the square and has not moved
+     */
+    private boolean unmoved(int sq, Piece.Color color, int imageNumber) {
+        Piece pc = squares[sq];
+        return pc != null && pc.getColor() == color &&
+                pc.getImageNumber() == imageNumber && pc.getNumberOfMoves() == 0;
     }
     
     /**
@@ -135,12 +473,18 @@ public class Board implements Serializable, Cloneable {
      * @return the piece at the location. null if no piece found
      */
     public Piece getPieceAt(Point p) {
-        for(Piece pc : pieces) {
-            if(pc.getLocation().x == p.x &&
-               pc.getLocation().y == p.y)
-                return pc;
-        }
-        return null;
+        if (!validLocation(p))
+            return null;
+        return squares[square(p)];
+    }
+    
+    /**
+     * Returns the piece on the given square
+     * @param sq square index, y * 8 + x
+     * @return the piece on the square. null if empty
+     */
+    public Piece getPieceAt(int sq) {
+        return squares[sq];
     }
     
     /**
@@ -148,8 +492,10 @@ public class Board implements Serializable, Cloneable {
      * @param p the piece to remove
      */
     public void removePiece(Piece p) {
-        if (pieces.contains(p)) {
-            pieces.remove(p);
+        // a piece on the board is always found in the mailbox at its square
+        if (p != null && squares[p.getSquare()] == p) {
+            removeFromList(p);
+            unindexPiece(p);
             return;
         }
     }
@@ -159,7 +505,41 @@ public class Board implements Serializable, Cloneable {
      * @param p Piece to add
      */
     public void addPiece(Piece p) {
+        p.listIndex = pieces.size();
         pieces.add(p);
+        indexPiece(p);
+    }
+    
+    /**
+     * Takes a piece out of the piece list by moving the last piece of the
+     *  list into its place
+     * @param p piece to take out
+     */
+    private void removeFromList(Piece p) {
+        Piece last = pieces.remove(pieces.size() - 1);
+        if (last != p) {
+            last.listIndex = p.listIndex;
+            pieces.set(p.listIndex, last);
+        }
+    }
+    
+    /**
+     * Puts a piece back into the piece list where it was taken out. The 
+     *  piece now in its place goes back to the end of the list, so undoing
+     *  removals in reverse order restores the list exactly.
+     * @param p piece to put back
+     * @param index index the piece had in the list
+     */
+    private void insertIntoList(Piece p, int index) {
+        if (index < pieces.size()) {
+            Piece other = pieces.get(index);
+            other.listIndex = pieces.size();
+            pieces.add(other);
+            pieces.set(index, p);
+        } else {
+            pieces.add(p);
+        }
+        p.listIndex = index;
     }
     
     /**
@@ -167,15 +547,11 @@ public class Board implements Serializable, Cloneable {
      * @param p Point to remove the piece from
      */
     public void removePieceAt(Point p) {
-        Piece temp = null;
-        for(Piece pc : pieces) {
-            if (pc.getLocation().equals(p)) {
-                temp = pc;
-                break;
-            }
+        Piece temp = getPieceAt(p);
+        if (temp != null) {
+            removeFromList(temp);
+            unindexPiece(temp);
         }
-        if (temp != null)
-            pieces.remove(temp);
     }
     
     /**
@@ -195,56 +571,254 @@ public class Board implements Serializable, Cloneable {
      */
     public void doMove(Move m, boolean playerMove) {
         this.previousState = this.clone();
+        applyMove(encodeMove(m), playerMove, null);
+    }
+    
+    /**
+     * Performs the given move in place, so that it can be taken back with
+     *  unmakeMove(). Does not check validity and does not store a previous
+     *  state for undo(). Pawns are promoted to queens, unless the move
+     *  has a promotion type.
+     * @param m move to perform, created for this board
+     */
+    public void makeMove(Move m) {
+        makeMove(encodeMove(m));
+    }
+    
+    /**
+     * Performs an encoded move in place, so that it can be taken back with
+     *  unmakeMove(). Does not check validity and does not store a previous
+     *  state for undo(). Use only moves from generateMoves().
+     * @param move move to perform, encoded by PackedMove
+     */
+    public void makeMove(int move) {
+        if (undoStack == null)
+            undoStack = new MoveUndo[16];
+        if (undoCount == undoStack.length) {
+            MoveUndo[] larger = new MoveUndo[undoStack.length * 2];
+            System.arraycopy(undoStack, 0, larger, 0, undoStack.length);
+            undoStack = larger;
+        }
+        MoveUndo undo = undoStack[undoCount];
+        if (undo == null) {
+            undo = new MoveUndo();
+            undoStack[undoCount] = undo;
+        }
+        undoCount++;
+        
+        applyMove(move, false, undo);
+    }
+    
+    /**
+     * Takes back the last move made with makeMove()
+     */
+    public void unmakeMove() {
+        MoveUndo undo = undoStack[--undoCount];
+        int move = undo.move;
+        Piece moved = undo.moved;
+        int from = PackedMove.from(move);
+        int to = PackedMove.to(move);
+        
+        hashKey ^= Zobrist.CASTLING[castlingRights()];
+        
+        // change the color of pieces moving next back
+        turn = Piece.Color.values()[(turn.ordinal() + 1) % 2];
+        hashKey ^= Zobrist.BLACK_TO_MOVE;
+        
+        if (PackedMove.isCastle(move)) {
+            unmovePiece(squares[rookTo(from, to)], rookFrom(from, to));
+            unmovePiece(moved, from);
+        } else {
+            // replace a promoted piece with the original pawn
+            if (undo.promoted != null) {
+                removeFromList(undo.promoted);
+                unindexPiece(undo.promoted);
+                insertIntoList(moved, undo.pawnIndex);
+                indexPiece(moved);
+            }
+            
+            unmovePiece(moved, from);
+            
+            // put a captured piece back where it was in the piece list
+            if (undo.captured != null) {
+                insertIntoList(undo.captured, undo.capturedIndex);
+                indexPiece(undo.captured);
+            }
+        }
+        
+        // restore en passant flags
+        if (moved instanceof Pawn && ((Pawn)moved).enPassantOk) {
+            ((Pawn)moved).enPassantOk = false;
+            hashKey ^= Zobrist.EN_PASSANT[from % 8];
+        }
+        long flags = undo.enPassantSquares;
+        while (flags != 0) {
+            int sq = Long.numberOfTrailingZeros(flags);
+            ((Pawn)squares[sq]).enPassantOk = true;
+            hashKey ^= Zobrist.EN_PASSANT[sq % 8];
+            flags &= flags - 1;
+        }
+        hashKey ^= Zobrist.CASTLING[castlingRights()];
+        
+        this.inCheck = undo.inCheck;
+        this.lastMoved = undo.lastMoved;
+        undo.moved = null;
+        undo.captured = null;
+        undo.promoted = null;
+    }
+    
+    /**
+     * Performs a move on the board
+     * @param move move to perform, encoded by PackedMove
+     * @param playerMove whether or not a dialog may be shown on pawn promotion
+     * @param undo record to store the information needed to take back the 
+     *  move in, null if the move will not be taken back
+     */
+    private void applyMove(int move, boolean playerMove, MoveUndo undo) {
+        int from = PackedMove.from(move);
+        int to = PackedMove.to(move);
+        Piece moving = squares[from];
+        
+        if (undo != null) {
+            undo.move = move;
+            undo.moved = moving;
+            undo.captured = null;
+            undo.promoted = null;
+            undo.enPassantSquares = 0L;
+            undo.inCheck = inCheck;
+            undo.lastMoved = lastMoved;
+        }
+        
+        hashKey ^= Zobrist.CASTLING[castlingRights()];
         
         // implementing en passant rule
-        for(Piece pc : pieces)
-            if (pc.getColor() == turn && pc instanceof Pawn)
-                ((Pawn)pc).enPassantOk = false;
+        long pawns = bitboards[turn.ordinal() * 6];
+        while (pawns != 0) {
+            int sq = Long.numberOfTrailingZeros(pawns);
+            Pawn pc = (Pawn)squares[sq];
+            if (pc.enPassantOk) {
+                pc.enPassantOk = false;
+                hashKey ^= Zobrist.EN_PASSANT[sq % 8];
+                if (undo != null)
+                    undo.enPassantSquares |= 1L << sq;
+            }
+            pawns &= pawns - 1;
+        }
         
         // if move is castling
-        if (m instanceof CastleMove) {
-            CastleMove c = (CastleMove)m;
-            c.getPiece().moveTo(c.getMoveTo());
-            c.getRook().moveTo(c.getRookMoveTo());
+        if (PackedMove.isCastle(move)) {
+            movePiece(moving, to);
+            movePiece(squares[rookFrom(from, to)], rookTo(from, to));
         } else {
-            if(m.getCaptured() != null);
-                this.removePiece(m.getCaptured());
+            if (PackedMove.isCapture(move)) {
+                Piece captured = squares[capturedSquare(move)];
+                if (undo != null) {
+                    undo.captured = captured;
+                    undo.capturedIndex = captured.listIndex;
+                }
+                this.removePiece(captured);
+            }
             
-            // implementing en passant rule
-            if (m.getPiece() instanceof Pawn)
-                if (Math.abs(m.getPiece().getLocation().y - m.getMoveTo().y) == 2)
-                    ((Pawn)m.getPiece()).enPassantOk = true;                
+            movePiece(moving, to);
             
-            m.getPiece().moveTo(m.getMoveTo());    
+            // implementing en passant rule
+            if (PackedMove.isDoublePush(move)) {
+                ((Pawn)moving).enPassantOk = true;
+                hashKey ^= Zobrist.EN_PASSANT[to % 8];
+            }
             
             // promote pawn if reached final rank
-            checkPawnPromotion(m.getPiece(), playerMove);
+            if (undo != null && moving instanceof Pawn)
+                undo.pawnIndex = moving.listIndex;
+            Piece promoted = checkPawnPromotion(moving, 
+                    PackedMove.promotion(move), playerMove);
+            if (undo != null)
+                undo.promoted = promoted;
         }
         
-        this.lastMoved = m.getPiece();
+        this.lastMoved = moving;
         this.inCheck = kingInCheck();
         
+        hashKey ^= Zobrist.CASTLING[castlingRights()];
+        
         // change the color of pieces moving next
         turn = Piece.Color.values()[(turn.ordinal() + 1) % 2];
+        hashKey ^= Zobrist.BLACK_TO_MOVE;
+    }
+    
+    /**
+     * Returns the square of the piece captured by a move
+     * @param move encoded capture
+     * @return square of the captured piece, beside the moving pawn when
+     *  captured en passant
+     */
+    private static int capturedSquare(int move) {
+        if (PackedMove.isEnPassant(move))
+            return PackedMove.from(move) / 8 * 8 + PackedMove.to(move) % 8;
+        return PackedMove.to(move);
+    }
+    
+    /**
+     * Returns the square the rook starts from when castling
+     * @param from square the king moves from
+     * @param to square the king moves to
+     * @return corner square of the rook
+     */
+    private static int rookFrom(int from, int to) {
+        return to > from ? from / 8 * 8 + 7 : from / 8 * 8;
+    }
+    
+    /**
+     * Returns the square the rook moves to when castling
+     * @param from square the king moves from
+     * @param to square the king moves to
+     * @return square the king passes over
+     */
+    private static int rookTo(int from, int to) {
+        return (from + to) / 2;
+    }
+    
+    /**
+     * Moves a piece on the board, keeping the bitboards up to date
+     * @param pc piece to move
+     * @param sq square to move to
+     */
+    private void movePiece(Piece pc, int sq) {
+        unindexPiece(pc);
+        pc.moveTo(sq);
+        indexPiece(pc);
+    }
+    
+    /**
+     * Returns a piece to where it was before its last move
+     * @param pc piece to move back
+     * @param sq square to return to
+     */
+    private void unmovePiece(Piece pc, int sq) {
+        unindexPiece(pc);
+        pc.undoMoveTo(sq);
+        indexPiece(pc);
     }
     
     /**
      * Checks if the given piece is a pawn that needs to be promoted. 
-     * If it is an ai piece, automatically promotes it to 
+     * If it is an ai piece, automatically promotes it to the given type.
      * @param pawn Piece to check
+     * @param type type of piece to promote to, as given by 
+     * Piece.getImageNumber(). 0 to promote to a queen.
      * @param showDialog Whether or not to ask the user what to promote pawn to. 
-     * If false, automatically promotes to Queen.
+     * If false, automatically promotes to the given type.
+     * @return the piece the pawn was promoted to, null if not promoted
      */
-    private void checkPawnPromotion(Piece pawn, boolean showDialog) {
-        if(pawn instanceof Pawn && (pawn.getLocation().y == 0 || pawn.getLocation().y == 7)) {
-            Piece promoted;
+    private Piece checkPawnPromotion(Piece pawn, int type, boolean showDialog) {
+        int y = Squares.y(pawn.getSquare());
+        if(pawn instanceof Pawn && (y == 0 || y == 7)) {
+            if (type == 0)
+                type = PackedMove.QUEEN;
             
-            // if ai, promote automatically to queen
-            if (!showDialog || (ai != null && ai.getColor() == pawn.getColor())) {
-                promoted = new Queen(pawn.getLocation(), pawn.getColor());
-            } else { 
-                // else, give the player a choice
-                Object type = javax.swing.JOptionPane.showInputDialog(
+            // if not ai, give the player a choice
+            if (showDialog && (ai == null || ai.getColor() != pawn.getColor())) {
+                Object choice = javax.swing.JOptionPane.showInputDialog(
                         null, "", 
                         "Choose promotion:",
                         javax.swing.JOptionPane.QUESTION_MESSAGE,
@@ -254,24 +828,36 @@ public class Board implements Serializable, Cloneable {
                 
                 // will be null if JOptionPane is cancelled or closed
                 // default to queen in that case
-                if (type == null)
-                    type = "Queen";
+                if (choice == null)
+                    choice = "Queen";
                 
                 // interpret the JOptionPane result
-                if (type.toString().equals("Queen"))
-                    promoted = new Queen(pawn.getLocation(), pawn.getColor());
-                else if (type.toString().equals("Rook"))
-                    promoted = new Rook(pawn.getLocation(), pawn.getColor());
-                else if (type.toString().equals("Bishop"))
-                    promoted = new Bishop(pawn.getLocation(), pawn.getColor());
+                if (choice.toString().equals("Queen"))
+                    type = PackedMove.QUEEN;
+                else if (choice.toString().equals("Rook"))
+                    type = PackedMove.ROOK;
+                else if (choice.toString().equals("Bishop"))
+                    type = PackedMove.BISHOP;
                 else
-                    promoted = new Knight(pawn.getLocation(), pawn.getColor());
+                    type = PackedMove.KNIGHT;
             }
+            
+            Piece promoted;
+            if (type == PackedMove.ROOK)
+                promoted = new Rook(pawn.getSquare(), pawn.getColor());
+            else if (type == PackedMove.BISHOP)
+                promoted = new Bishop(pawn.getSquare(), pawn.getColor());
+            else if (type == PackedMove.KNIGHT)
+                promoted = new Knight(pawn.getSquare(), pawn.getColor());
+            else
+                promoted = new Queen(pawn.getSquare(), pawn.getColor());
 
             // remove pawn and add promoted piece to board
-            pieces.remove(pawn);
-            pieces.add(promoted);
+            removePiece(pawn);
+            addPiece(promoted);
+            return promoted;
         }
+        return null;
     }
     
     /**
@@ -283,72 +869,582 @@ public class Board implements Serializable, Cloneable {
         // creates a copy of the board
         Board helper = this.clone();
         
-        if (m instanceof CastleMove) {
-            // creates a copy of the move for the copied board
-            CastleMove c = (CastleMove)m;
-            Piece king = helper.getPieceAt(c.getPiece().getLocation());
-            Piece rook = helper.getPieceAt(c.getRook().getLocation());
-            
-            // performs the move on the copied board
-            helper.doMove(new CastleMove(king, c.getMoveTo(),
-                    rook, c.getRookMoveTo()), false);
-        } else {       
-            // creates a copy of the move for the copied board
-            Piece capture = null;
-            if(m.getCaptured() != null)
-                capture = helper.getPieceAt(m.getCaptured().getLocation());
-
-            Piece moving = helper.getPieceAt(m.getPiece().getLocation());
-
-            // performs the move on the copied board
-            helper.doMove(new Move(moving,
-                    m.getMoveTo(), capture), false);
-        }
+        // performs a copy of the move on the copied board
+        helper.doMove(helper.copyMove(m), false);
         
         // returns the copied board with the move executed
         return helper;
     }  
     
+    /**
+     * Returns a copy of a move made for another board, such as the board 
+     * this one was copied from, using the pieces of this board
+     * @param m move to copy
+     * @return the same move for this board
+     */
+    public Move copyMove(Move m) {
+        if (m instanceof CastleMove) {
+            CastleMove c = (CastleMove)m;
+            Piece king = squares[c.getPiece().getSquare()];
+            Piece rook = squares[c.getRook().getSquare()];
+            return new CastleMove(king, c.getTo(), rook, c.getRookTo());
+        }
+        
+        Piece capture = null;
+        if(m.getCaptured() != null)
+            capture = squares[m.getCaptured().getSquare()];
+        Piece moving = squares[m.getPiece().getSquare()];
+        return new Move(moving, m.getTo(), capture, m.getPromotion());
+    }
+    
     /**
      * Used to find out if a king is in check
      * @return a Piece (King) if one is in check, else null
      */
     private Piece kingInCheck() {
-        // go through all the pieces on the board
-        for(Piece pc : pieces)
-            // go through all the moves that can be made by the piece
-            for(Move mv : pc.getValidMoves(this, false))
-                // if a move would result in a king being captured
-                if (mv.getCaptured() instanceof King) {
-                    // that king is in check
-                    this.inCheck = mv.getCaptured();
-                    // return it.
-                    return mv.getCaptured();
-                }
+        // the king of the color moving next is checked first, the king
+        // of the color that just moved can only be in check after an
+        // illegal move
+        int next = (turn.ordinal() + 1) % 2;
+        for(int i = 0; i < 2; i++) {
+            int color = (next + i) % 2;
+            long king = bitboards[color * 6 + 5];
+            if (king != 0) {
+                int sq = Long.numberOfTrailingZeros(king);
+                if (isSquareAttacked(sq, Piece.Color.values()[1 - color]))
+                    return squares[sq];
+            }
+        }
         return null;
     }
     
     /**
-     * Checks if a move puts a king in check
+     * Checks if a move puts a king in check. The move is not made, only
+     *  the occupancy of the squares it changes is updated while the king's 
+     *  square is checked for attacks.
      * @param m move to check
      * @param kingColor color of the king to check
      * @return true if move puts king in check
      */
     public boolean movePutsKingInCheck(Move m, Piece.Color kingColor) {
-        // create a copy of the board
-        Board helper = tryMove(m);
+        Piece moving = m.getPiece();
+        int from = moving.getSquare();
+        int to = m.getTo();
+        
+        // find the square of the king after the move
+        int kingSquare;
+        if (moving instanceof King && moving.getColor() == kingColor) {
+            kingSquare = to;
+        } else {
+            long king = bitboards[kingColor.ordinal() * 6 + 5];
+            if (king == 0)
+                return false;
+            kingSquare = Long.numberOfTrailingZeros(king);
+        }
+        
+        long savedOccupied = occupied;
+        occupied = (occupied & ~(1L << from)) | (1L << to);
+        
+        if (m instanceof CastleMove) {
+            CastleMove c = (CastleMove)m;
+            occupied &= ~(1L << c.getRook().getSquare());
+            occupied |= 1L << c.getRookTo();
+        }
+        
+        // a captured piece no longer attacks, and no longer blocks if it 
+        // was captured en passant
+        Piece captured = m.getCaptured();
+        int capturedIndex = 0;
+        long capturedBit = 0L;
+        if (captured != null) {
+            int sq = captured.getSquare();
+            capturedIndex = captured.getColor().ordinal() * 6 + captured.getImageNumber();
+            capturedBit = 1L << sq;
+            bitboards[capturedIndex] &= ~capturedBit;
+            if (sq != to)
+                occupied &= ~capturedBit;
+        }
+        
+        boolean attacked = isSquareAttacked(kingSquare, 
+                Piece.Color.values()[1 - kingColor.ordinal()]);
+        
+        occupied = savedOccupied;
+        bitboards[capturedIndex] |= capturedBit;
+        return attacked;
+    }
+    
+    /**
+     * Checks if a square is attacked by any piece of the given color. 
+     *  Works backwards from the square, looking for knights, pawns and kings
+     *  a leap away and for sliding pieces along the rays from the square.
+     * @param sq square to check
+     * @param byColor color of the attacking pieces
+     * @return true if a piece of the color attacks the square
+     */
+    public boolean isSquareAttacked(int sq, Piece.Color byColor) {
+        return attackersOf(sq, byColor) != 0;
+    }
+    
+    /**
+     * Returns the pieces of the given color that attack a square
+     * @param sq square to check
+     * @param byColor color of the attacking pieces
+     * @return squares of the attacking pieces
+     */
+    private long attackersOf(int sq, Piece.Color byColor) {
+        int base = byColor.ordinal() * 6;
+        long attackers = 0L;
+        
+        // a pawn attacks the square if a pawn of the other color on the
+        // square would attack the pawn
+        attackers |= Attacks.PAWN[1 - byColor.ordinal()][sq] & bitboards[base];
+        attackers |= Attacks.KNIGHT[sq] & bitboards[base + 1];
+        attackers |= Attacks.KING[sq] & bitboards[base + 5];
+        
+        // sliding pieces attack the square if it attacks them back
+        long queens = bitboards[base + 4];
+        long straight = bitboards[base + 3] | queens;
+        long diagonal = bitboards[base + 2] | queens;
+        if (straight != 0)
+            attackers |= Attacks.rook(sq, occupied) & straight;
+        if (diagonal != 0)
+            attackers |= Attacks.bishop(sq, occupied) & diagonal;
+        return attackers;
+    }
+    
+    /**
+     * Generates the legal moves of the color to move. No objects are 
+     *  created, the moves are encoded by PackedMove into the given buffer.
+     * @param moves buffer to add the moves to, with room for MAX_MOVES 
+     *  moves after start
+     * @param start index in the buffer to add the first move at
+     * @return index after the last move added
+     */
+    public int generateMoves(int[] moves, int start) {
+        return generate(turn, moves, start, false);
+    }
+    
+    /**
+     * Generates the legal captures and queen promotions of the color to 
+     *  move, as generateMoves() does
+     * @param moves buffer to add the moves to, with room for MAX_MOVES 
+     *  moves after start
+     * @param start index in the buffer to add the first move at
+     * @return index after the last move added
+     */
+    public int generateCaptures(int[] moves, int start) {
+        return generate(turn, moves, start, true);
+    }
+    
+    /**
+     * Counts the legal moves of the color to move
+     * @return number of legal moves
+     */
+    public int countLegalMoves() {
+        return generate(turn, null, 0, false);
+    }
+    
+    /**
+     * Returns all the legal moves of a color. A pawn reaching the last rank
+     *  has one move, the piece it is promoted to is chosen when the move is
+     *  made.
+     * @param color color of the pieces to move
+     * @return list of legal moves
+     */
+    public List<Move> getLegalMoves(Piece.Color color) {
+        int[] buffer = new int[MAX_MOVES];
+        return decodeMoves(buffer, generate(color, buffer, 0, false), -1);
+    }
+    
+    /**
+     * Returns the legal moves of a single piece, as getLegalMoves(color) 
+     * @param pc the piece to move
+     * @return list of legal moves of the piece
+     */
+    public List<Move> getLegalMoves(Piece pc) {
+        int[] buffer = new int[MAX_MOVES];
+        int count = generate(pc.getColor(), buffer, 0, false);
+        return decodeMoves(buffer, count, pc.getSquare());
+    }
+    
+    /**
+     * Creates move objects for encoded moves. Of the promotions of a pawn
+     *  only the one to a queen is kept.
+     * @param buffer encoded moves
+     * @param count number of moves in the buffer
+     * @param from square of the piece to decode moves for, -1 for all
+     * @return list of moves
+     */
+    private List<Move> decodeMoves(int[] buffer, int count, int from) {
+        List<Move> moves = new ArrayList<Move>();
+        for(int i = 0; i < count; i++) {
+            int move = buffer[i];
+            if (PackedMove.isPromotion(move) && 
+                    PackedMove.promotion(move) != PackedMove.QUEEN)
+                continue;
+            if (from < 0 || PackedMove.from(move) == from)
+                moves.add(decodeMove(move));
+        }
+        return moves;
+    }
+    
+    /**
+     * Creates a move object for an encoded move, using the pieces of this
+     *  board
+     * @param move move encoded by PackedMove
+     * @return the move as a Move or CastleMove
+     */
+    public Move decodeMove(int move) {
+        int from = PackedMove.from(move);
+        int to = PackedMove.to(move);
+        if (PackedMove.isCastle(move))
+            return new CastleMove(squares[from], to, 
+                    squares[rookFrom(from, to)], rookTo(from, to));
+        
+        Piece captured = null;
+        if (PackedMove.isCapture(move))
+            captured = squares[capturedSquare(move)];
+        return new Move(squares[from], to, captured, 
+                PackedMove.promotion(move));
+    }
+    
+    /**
+     * Encodes a move made with the pieces of this board. Pawns reaching 
+     *  the last rank are promoted to queens unless the move has a 
+     *  promotion type.
+     * @param m move to encode
+     * @return the move encoded by PackedMove
+     */
+    private int encodeMove(Move m) {
+        Piece pc = m.getPiece();
+        int from = pc.getSquare();
+        int to = m.getTo();
+        if (m instanceof CastleMove)
+            return PackedMove.encode(from, to, PackedMove.KING, -1, 0, 
+                    PackedMove.CASTLE);
+        
+        int flags = 0;
+        int captured = -1;
+        if (m.getCaptured() != null) {
+            captured = m.getCaptured().getImageNumber();
+            if (m.getCaptured().getSquare() != to)
+                flags |= PackedMove.EN_PASSANT;
+        }
+        int promotion = 0;
+        if (pc instanceof Pawn) {
+            if (Math.abs(to / 8 - from / 8) == 2)
+                flags |= PackedMove.DOUBLE_PUSH;
+            if (to / 8 == 0 || to / 8 == 7)
+                promotion = m.getPromotion() != 0 ? 
+                        m.getPromotion() : PackedMove.QUEEN;
+        }
+        return PackedMove.encode(from, to, pc.getImageNumber(), captured,
+                promotion, flags);
+    }
+    
+    /**
+     * Generates legal moves. The pieces giving check and the pieces pinned 
+     *  to their king are found once, then moves are generated from the 
+     *  bitboards and kept or dropped without trying them on the board:
+     *  in double check only the king may move, in check other pieces must 
+     *  capture the checking piece or block it, and pinned pieces must stay 
+     *  on the line between their king and the pinning piece. The king may 
+     *  not move to an attacked square, nor castle out of or through check.
+     *  En passant captures remove two pieces from a rank, which may uncover
+     *  an attack on the king, and are tested separately.
+     * @param color color of the pieces to move
+     * @param moves buffer to add the moves to, null to only count them
+     * @param n index in the buffer to add the first move at
+     * @param capturesOnly true to generate only captures and queen promotions
+     * @return index after the last move added
+     */
+    private int generate(Piece.Color color, int[] moves, int n, boolean capturesOnly) {
+        int us = color.ordinal();
+        Piece.Color enemy = Piece.Color.values()[1 - us];
+        long own = occupancy[us];
+        long enemies = occupancy[1 - us];
+        
+        long king = bitboards[us * 6 + 5];
+        int kingSquare = king == 0 ? -1 : Long.numberOfTrailingZeros(king);
+        
+        // squares a piece other than the king must move to, to get the 
+        // king out of check: the checking piece and the squares between
+        long checkers = king == 0 ? 0L : attackersOf(kingSquare, enemy);
+        long evasions = ~0L;
+        if (checkers != 0)
+            evasions = checkers | Squares.between(kingSquare, 
+                    Long.numberOfTrailingZeros(checkers));
+        
+        // own pieces with an enemy sliding piece behind them on a line
+        // through the king
+        long pinned = 0L;
+        if (king != 0) {
+            int base = (1 - us) * 6;
+            long queens = bitboards[base + 4];
+            // sliders seen from the king once its own nearest pieces on 
+            // each line are lifted off the board
+            long rookView = Attacks.rook(kingSquare, occupied);
+            long bishopView = Attacks.bishop(kingSquare, occupied);
+            long pinners = (Attacks.rook(kingSquare, occupied & ~(rookView & own))
+                    & ~rookView & (bitboards[base + 3] | queens))
+                    | (Attacks.bishop(kingSquare, occupied & ~(bishopView & own))
+                    & ~bishopView & (bitboards[base + 2] | queens));
+            for(; pinners != 0; pinners &= pinners - 1)
+                pinned |= Squares.between(kingSquare, 
+                        Long.numberOfTrailingZeros(pinners)) & own;
+        }
+        
+        if (king != 0) {
+            // attacks are looked for with the king off the board, so it
+            // cannot hide behind itself from a sliding piece
+            occupied &= ~king;
+            long kingTargets = Attacks.KING[kingSquare] & ~own;
+            if (capturesOnly)
+                kingTargets &= enemies;
+            for(; kingTargets != 0; kingTargets &= kingTargets - 1) {
+                int to = Long.numberOfTrailingZeros(kingTargets);
+                if (attackersOf(to, enemy) == 0)
+                    n = add(moves, n, PackedMove.encode(kingSquare, to, 
+                            PackedMove.KING, typeAt(to), 0, 0));
+            }
+            occupied |= king;
+            
+            if (checkers == 0 && !capturesOnly)
+                n = addCastles(moves, n, kingSquare, enemy);
+        }
+        
+        // in double check only the king can move
+        if (Long.bitCount(checkers) > 1)
+            return n;
+        
+        long targets = ~own & evasions;
+        if (capturesOnly)
+            targets &= enemies;
+        
+        // a pinned knight can never stay on the line of the pin
+        for(long knights = bitboards[us * 6 + 1] & ~pinned; knights != 0; 
+                knights &= knights - 1) {
+            int from = Long.numberOfTrailingZeros(knights);
+            for(long attacks = Attacks.KNIGHT[from] & targets; attacks != 0; 
+                    attacks &= attacks - 1) {
+                int to = Long.numberOfTrailingZeros(attacks);
+                n = add(moves, n, PackedMove.encode(from, to, 
+                        PackedMove.KNIGHT, typeAt(to), 0, 0));
+            }
+        }
+        
+        // bishops move along the diagonal rays, rooks along the straight 
+        // ones and queens along both
+        for(int type = PackedMove.BISHOP; type <= PackedMove.QUEEN; type++) {
+            for(long sliders = bitboards[us * 6 + type]; sliders != 0; 
+                    sliders &= sliders - 1) {
+                int from = Long.numberOfTrailingZeros(sliders);
+                long attacks;
+                if (type == PackedMove.BISHOP)
+                    attacks = Attacks.bishop(from, occupied);
+                else if (type == PackedMove.ROOK)
+                    attacks = Attacks.rook(from, occupied);
+                else
+                    attacks = Attacks.queen(from, occupied);
+                for(attacks &= targets; attacks != 0; attacks &= attacks - 1) {
+                    int to = Long.numberOfTrailingZeros(attacks);
+                    if (staysOnPin(pinned, kingSquare, from, to))
+                        n = add(moves, n, PackedMove.encode(from, to, 
+                                type, typeAt(to), 0, 0));
+                }
+            }
+        }
+        
+        return addPawnMoves(color, moves, n, capturesOnly, evasions, pinned, 
+                kingSquare);
+    }
+    
+    /**
+     * Generates the legal pawn moves of a color
+     * @param color color of the pawns
+     * @param moves buffer to add the moves to, null to only count them
+     * @param n index in the buffer to add the first move at
+     * @param capturesOnly true to generate only captures and queen promotions
+     * @param evasions squares the pawns must move to or capture on
+     * @param pinned pieces pinned to their king
+     * @param kingSquare square of the king, -1 if there is none
+     * @return index after the last move added
+     */
+    private int addPawnMoves(Piece.Color color, int[] moves, int n, 
+            boolean capturesOnly, long evasions, long pinned, int kingSquare) {
+        int us = color.ordinal();
+        long enemies = occupancy[1 - us];
+        long enemyPawns = bitboards[(1 - us) * 6];
+        
+        // white pawns move to lower y, and capture en passant from y = 3
+        int forward = Squares.offset(0, color == Piece.Color.White ? -1 : 1);
+        int enPassantRank = color == Piece.Color.White ? 3 : 4;
         
-        // go through all the pieces on the board
-        for(Piece pc : helper.getPieces())
-            // if the color is different than the color 
-            // of the king we are checking for
-            if (pc.color != kingColor)
-                // go through all of it's available moves
-                for(Move mv : pc.getValidMoves(helper, false))
-                    // if a move would result in the capture of a king
-                    if (mv.getCaptured() instanceof King) 
-                        return true;
-        return false;
+        for(long pawns = bitboards[us * 6]; pawns != 0; pawns &= pawns - 1) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            int to = Squares.step(from, forward);
+            if (to == Squares.OFF_BOARD)
+                continue;
+            int ty = Squares.y(to);
+            boolean promotes = ty == 0 || ty == 7;
+            
+            if ((occupied & (1L << to)) == 0) {
+                if ((!capturesOnly || promotes) && (evasions & (1L << to)) != 0 &&
+                        staysOnPin(pinned, kingSquare, from, to))
+                    n = addPawnMove(moves, n, from, to, -1, promotes, capturesOnly);
+                
+                // pawns that have not moved may advance two squares
+                int to2 = Squares.step(to, forward);
+                if (!capturesOnly && to2 != Squares.OFF_BOARD && 
+                        (occupied & (1L << to2)) == 0 &&
+                        (evasions & (1L << to2)) != 0 &&
+                        squares[from].getNumberOfMoves() == 0 &&
+                        staysOnPin(pinned, kingSquare, from, to2))
+                    n = add(moves, n, PackedMove.encode(from, to2, 
+                            PackedMove.PAWN, -1, 0, PackedMove.DOUBLE_PUSH));
+            }
+            
+            for(long attacks = Attacks.PAWN[us][from]; attacks != 0; 
+                    attacks &= attacks - 1) {
+                to = Long.numberOfTrailingZeros(attacks);
+                if ((enemies & evasions & (1L << to)) != 0 &&
+                        staysOnPin(pinned, kingSquare, from, to))
+                    n = addPawnMove(moves, n, from, to, typeAt(to), promotes, 
+                            capturesOnly);
+                
+                // the pawn captured en passant is beside this one
+                int side = (from & ~7) | (to & 7);
+                if (Squares.y(from) == enPassantRank && (enemyPawns & (1L << side)) != 0 && 
+                        ((Pawn)squares[side]).enPassantOk) {
+                    int move = PackedMove.encode(from, to, PackedMove.PAWN, 
+                            PackedMove.PAWN, 0, PackedMove.EN_PASSANT);
+                    if (!enPassantExposesKing(color, kingSquare, from, to, side))
+                        n = add(moves, n, move);
+                }
+            }
+        }
+        return n;
+    }
+    
+    /**
+     * Adds a pawn move, or its promotions if the pawn reaches the last rank
+     * @param moves buffer to add the moves to, null to only count them
+     * @param n index in the buffer to add the move at
+     * @param from square the pawn moves from
+     * @param to square the pawn moves to
+     * @param captured type of the captured piece, -1 if none
+     * @param promotes true if the pawn reaches the last rank
+     * @param queenOnly true to only add the promotion to a queen
+     * @return index after the last move added
+     */
+    private static int addPawnMove(int[] moves, int n, int from, int to, 
+            int captured, boolean promotes, boolean queenOnly) {
+        if (!promotes)
+            return add(moves, n, PackedMove.encode(from, to, PackedMove.PAWN, 
+                    captured, 0, 0));
+        
+        n = add(moves, n, PackedMove.encode(from, to, PackedMove.PAWN, 
+                captured, PackedMove.QUEEN, 0));
+        if (!queenOnly)
+            for(int type = PackedMove.ROOK; type >= PackedMove.KNIGHT; type--)
+                n = add(moves, n, PackedMove.encode(from, to, PackedMove.PAWN, 
+                        captured, type, 0));
+        return n;
+    }
+    
+    /**
+     * Generates the castling moves of a king that is not in check. The king
+     *  and rook must not have moved, the squares between them must be empty
+     *  and the king may not pass through or land on an attacked square.
+     * @param moves buffer to add the moves to, null to only count them
+     * @param n index in the buffer to add the first move at
+     * @param kingSquare square of the king
+     * @param enemy color of the opposing pieces
+     * @return index after the last move added
+     */
+    private int addCastles(int[] moves, int n, int kingSquare, Piece.Color enemy) {
+        Piece king = squares[kingSquare];
+        if (king.getNumberOfMoves() != 0)
+            return n;
+        
+        // with the rook on the right side of the board, then the left
+        for(int dir = 1; dir >= -1; dir -= 2) {
+            int to = kingSquare + dir * 2;
+            int rookSquare = dir > 0 ? kingSquare / 8 * 8 + 7 : kingSquare / 8 * 8;
+            Piece rook = squares[rookSquare];
+            if (!(rook instanceof Rook) || rook.getColor() != king.getColor() ||
+                    rook.getNumberOfMoves() != 0 || to / 8 != kingSquare / 8)
+                continue;
+            if ((occupied & Squares.between(kingSquare, rookSquare)) != 0)
+                continue;
+            if (attackersOf(kingSquare + dir, enemy) == 0 && 
+                    attackersOf(to, enemy) == 0)
+                n = add(moves, n, PackedMove.encode(kingSquare, to, 
+                        PackedMove.KING, -1, 0, PackedMove.CASTLE));
+        }
+        return n;
+    }
+    
+    /**
+     * Checks if an en passant capture leaves the king attacked. The capture
+     *  removes two pawns from the rank the king may be attacked along.
+     * @param color color of the capturing pawn
+     * @param kingSquare square of the king, -1 if there is none
+     * @param from square the pawn moves from
+     * @param to square the pawn moves to
+     * @param captured square of the captured pawn
+     * @return true if the king would be in check after the capture
+     */
+    private boolean enPassantExposesKing(Piece.Color color, int kingSquare, 
+            int from, int to, int captured) {
+        if (kingSquare < 0)
+            return false;
+        int enemyPawns = (1 - color.ordinal()) * 6;
+        long savedOccupied = occupied;
+        occupied = (occupied & ~(1L << from) & ~(1L << captured)) | (1L << to);
+        bitboards[enemyPawns] &= ~(1L << captured);
+        
+        boolean attacked = attackersOf(kingSquare, 
+                Piece.Color.values()[1 - color.ordinal()]) != 0;
+        
+        bitboards[enemyPawns] |= 1L << captured;
+        occupied = savedOccupied;
+        return attacked;
+    }
+    
+    /**
+     * Checks that a piece that may be pinned stays on the line of the pin
+     * @param pinned pieces pinned to their king
+     * @param kingSquare square of the king
+     * @param from square the piece moves from
+     * @param to square the piece moves to
+     * @return true if the piece is not pinned or stays on the line
+     */
+    private static boolean staysOnPin(long pinned, int kingSquare, int from, int to) {
+        return (pinned & (1L << from)) == 0 || 
+                Squares.direction(kingSquare, from) == Squares.direction(kingSquare, to);
+    }
+    
+    /**
+     * Adds a move to a buffer
+     * @param moves buffer to add the move to, null to only count it
+     * @param n index to add the move at
+     * @param move encoded move
+     * @return index after the move
+     */
+    private static int add(int[] moves, int n, int move) {
+        if (moves != null)
+            moves[n] = move;
+        return n + 1;
+    }
+    
+    /**
+     * Returns the type of the piece on a square
+     * @param sq square to look at
+     * @return type as given by Piece.getImageNumber(), -1 if empty
+     */
+    private int typeAt(int sq) {
+        return squares[sq] == null ? -1 : squares[sq].getImageNumber();
     }
     
     /**
@@ -357,21 +1453,54 @@ public class Board implements Serializable, Cloneable {
      *  Use kingInCheck() to determine which.
      */
     public boolean gameOver() {
-        // create an array for all the moves that can be made by 
-        // black pieces, white pieces
-        List<Move> whiteMoves = new ArrayList<Move>();
-        List<Move> blackMoves = new ArrayList<Move>();
-        
-        // all moves to the arrays for all pieces
-        for(Piece p : pieces) {
-            if(p.getColor() == Piece.Color.White)
-                whiteMoves.addAll(p.getValidMoves(this, true));
-            else
-                blackMoves.addAll(p.getValidMoves(this, true));
-        }
-        
         // if either side can make no valid moves, the game is over
-        return (whiteMoves.size() == 0 || blackMoves.size() == 0);
+        return generate(Piece.Color.White, null, 0, false) == 0 ||
+                generate(Piece.Color.Black, null, 0, false) == 0;
+    }
+    
+    /**
+     * Returns a hash code for the position on the board
+     * @return hash code derived from the Zobrist key
+     */
+    @Override
+    public int hashCode() {
+        return (int)(hashKey ^ (hashKey >>> 32));
+    }
+    
+    /**
+     * Checks if another board holds the same position: the same pieces on
+     * the same squares, color to move, castling rights and en passant 
+     * captures. Move history is not compared.
+     * @param o object to compare to
+     * @return true if the positions are the same
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Board))
+            return false;
+        Board other = (Board)o;
+        return hashKey == other.hashKey && turn == other.turn &&
+                Arrays.equals(bitboards, other.bitboards) &&
+                castlingRights() == other.castlingRights() &&
+                enPassantSquares() == other.enPassantSquares();
+    }
+    
+    /**
+     * Returns the squares of pawns that can be captured en passant
+     * @return mask of the squares
+     */
+    private long enPassantSquares() {
+        long result = 0L;
+        long pawns = bitboards[0] | bitboards[6];
+        while (pawns != 0) {
+            int sq = Long.numberOfTrailingZeros(pawns);
+            if (((Pawn)squares[sq]).enPassantOk)
+                result |= 1L << sq;
+            pawns &= pawns - 1;
+        }
+        return result;
     }
     
     /**
@@ -380,7 +1509,8 @@ public class Board implements Serializable, Cloneable {
      */
     @Override
     public Board clone() {
-        return new Board(turn, previousState, pieces, lastMoved, inCheck, ai);
+        return new Board(turn, previousState, pieces, lastMoved, inCheck, ai,
+                bitboards, occupancy, occupied, hashKey, mgScore, egScore, phase);
     }
     
     /**
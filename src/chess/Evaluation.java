@@ -0,0 +1,138 @@
+package chess;
+
+/**
+ * Material values and piece-square tables for evaluating positions. Every
+ * piece has a middlegame and an endgame score for each square. The board
+ * keeps the sums of these up to date as pieces move, and blends them by
+ * the game phase, which falls from MAX_PHASE towards 0 as pieces other
+ * than pawns and kings leave the board.
+ * @author Paul
+ */
+final class Evaluation {
+
+    // material values in centipawns, by piece type
+    static final int[] MG_VALUE = {82, 337, 365, 477, 1025, 0};
+    static final int[] EG_VALUE = {94, 281, 297, 512, 936, 0};
+    
+    // weight of each piece type in the game phase
+    static final int[] PHASE = {0, 1, 1, 2, 4, 0};
+    // game phase of the starting position
+    static final int MAX_PHASE = 24;
+    
+    // material and square score of a piece, indexed by
+    // [color.ordinal() * 6 + type][square]. Scores of black pieces are
+    // negated, so a sum over the board is white's advantage.
+    static final int[][] MG = new int[12][64];
+    static final int[][] EG = new int[12][64];
+    
+    // tables are from white's side, with its back rank at the bottom (y = 7)
+    private static final int[] PAWN_MG = {
+          0,   0,   0,   0,   0,   0,   0,   0,
+         50,  50,  50,  50,  50,  50,  50,  50,
+         10,  10,  20,  30,  30,  20,  10,  10,
+          5,   5,  10,  25,  25,  10,   5,   5,
+          0,   0,   0,  20,  20,   0,   0,   0,
+          5,  -5, -10,   0,   0, -10,  -5,   5,
+          5,  10,  10, -20, -20,  10,  10,   5,
+          0,   0,   0,   0,   0,   0,   0,   0
+    };
+    
+    // in the endgame pawns are worth more the closer they are to promoting
+    private static final int[] PAWN_EG = {
+          0,   0,   0,   0,   0,   0,   0,   0,
+         80,  80,  80,  80,  80,  80,  80,  80,
+         50,  50,  50,  50,  50,  50,  50,  50,
+         30,  30,  30,  30,  30,  30,  30,  30,
+         15,  15,  15,  15,  15,  15,  15,  15,
+          5,   5,   5,   5,   5,   5,   5,   5,
+          0,   0,   0,   0,   0,   0,   0,   0,
+          0,   0,   0,   0,   0,   0,   0,   0
+    };
+    
+    private static final int[] KNIGHT_TABLE = {
+        -50, -40, -30, -30, -30, -30, -40, -50,
+        -40, -20,   0,   0,   0,   0, -20, -40,
+        -30,   0,  10,  15,  15,  10,   0, -30,
+        -30,   5,  15,  20,  20,  15,   5, -30,
+        -30,   0,  15,  20,  20,  15,   0, -30,
+        -30,   5,  10,  15,  15,  10,   5, -30,
+        -40, -20,   0,   5,   5,   0, -20, -40,
+        -50, -40, -30, -30, -30, -30, -40, -50
+    };
+    
+    private static final int[] BISHOP_TABLE = {
+        -20, -10, -10, -10, -10, -10, -10, -20,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -10,   0,   5,  10,  10,   5,   0, -10,
+        -10,   5,   5,  10,  10,   5,   5, -10,
+        -10,   0,  10,  10,  10,  10,   0, -10,
+        -10,  10,  10,  10,  10,  10,  10, -10,
+        -10,   5,   0,   0,   0,   0,   5, -10,
+        -20, -10, -10, -10, -10, -10, -10, -20
+    };
+    
+    private static final int[] ROOK_TABLE = {
+          0,   0,   0,   0,   0,   0,   0,   0,
+          5,  10,  10,  10,  10,  10,  10,   5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+         -5,   0,   0,   0,   0,   0,   0,  -5,
+          0,   0,   0,   5,   5,   0,   0,   0
+    };
+    
+    private static final int[] QUEEN_TABLE = {
+        -20, -10, -10,  -5,  -5, -10, -10, -20,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -10,   0,   5,   5,   5,   5,   0, -10,
+         -5,   0,   5,   5,   5,   5,   0,  -5,
+          0,   0,   5,   5,   5,   5,   0,  -5,
+        -10,   5,   5,   5,   5,   5,   0, -10,
+        -10,   0,   5,   0,   0,   0,   0, -10,
+        -20, -10, -10,  -5,  -5, -10, -10, -20
+    };
+    
+    // the king shelters behind its pawns in the middlegame
+    private static final int[] KING_MG = {
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -20, -30, -30, -40, -40, -30, -30, -20,
+        -10, -20, -20, -20, -20, -20, -20, -10,
+         20,  20,   0,   0,   0,   0,  20,  20,
+         20,  30,  10,   0,   0,  10,  30,  20
+    };
+    
+    // and moves to the center in the endgame
+    private static final int[] KING_EG = {
+        -50, -40, -30, -20, -20, -30, -40, -50,
+        -30, -20, -10,   0,   0, -10, -20, -30,
+        -30, -10,  20,  30,  30,  20, -10, -30,
+        -30, -10,  30,  40,  40,  30, -10, -30,
+        -30, -10,  30,  40,  40,  30, -10, -30,
+        -30, -10,  20,  30,  30,  20, -10, -30,
+        -30, -30,   0,   0,   0,   0, -30, -30,
+        -50, -30, -30, -30, -30, -30, -30, -50
+    };
+    
+    static {
+        int[][] mgTables = {PAWN_MG, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE,
+            QUEEN_TABLE, KING_MG};
+        int[][] egTables = {PAWN_EG, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE,
+            QUEEN_TABLE, KING_EG};
+        int black = Piece.Color.Black.ordinal() * 6;
+        int white = Piece.Color.White.ordinal() * 6;
+        for(int type = 0; type < 6; type++)
+            for(int sq = 0; sq < 64; sq++) {
+                MG[white + type][sq] = MG_VALUE[type] + mgTables[type][sq];
+                EG[white + type][sq] = EG_VALUE[type] + egTables[type][sq];
+                // black uses the tables flipped vertically
+                MG[black + type][sq] = -(MG_VALUE[type] + mgTables[type][sq ^ 56]);
+                EG[black + type][sq] = -(EG_VALUE[type] + egTables[type][sq ^ 56]);
+            }
+    }
+    
+    private Evaluation() { }
+}
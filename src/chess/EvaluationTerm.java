@@ -0,0 +1,20 @@
+package chess;
+
+import java.io.Serializable;
+
+/**
+ * A term of the ai's evaluation of a board, added to the material and 
+ * piece-square score kept by the board. Terms are saved with the ai, and
+ * are called from all the search threads at once, so they should not 
+ * change any state while evaluating.
+ * @author Paul
+ */
+public interface EvaluationTerm extends Serializable {
+    
+    /**
+     * Evaluates a board
+     * @param board board to evaluate
+     * @return score in centipawns, positive if white is better off
+     */
+    int evaluate(Board board);
+}
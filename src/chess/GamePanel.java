@@ -2,7 +2,9 @@ package chess;
 
 import javax.swing.JComponent;
 import javax.swing.JOptionPane;
+import javax.swing.SwingWorker;
 import java.awt.Color;
+import java.awt.Cursor;
 import java.awt.Point;
 import java.awt.Graphics;
 import java.awt.Image;
@@ -13,9 +15,14 @@ import javax.imageio.ImageIO;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.ObjectInputStream;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * A component for playing a game of chess. A subclass of JComponent. 
@@ -46,6 +53,36 @@ public class GamePanel extends JComponent implements MouseListener {
     final Color lastMovedColor = new Color(0,255,255,75);
     final Color lightColor = new Color(255,255,255,255);
     final Color darkColor = new Color(0,0,0,255);
+    final Color progressColor = new Color(0,0,255,127);
+    
+    // longest time the ai may think about a move, in milliseconds
+    final long aiTimeLimit = 5000;
+    
+    // runs the searches of the ai one at a time, off the event dispatch 
+    // thread. A stopped search finishes before the next one starts, as
+    // they share the ai.
+    final ExecutorService aiExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Ai search");
+                    // the search does not keep the program running
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    // search for the ai's move, null if the ai is not thinking
+    AiMoveWorker aiWorker = null;
+    // share of the ai's search done, from 0 to 1
+    double aiProgress = 0;
+    // whether the ai thinks about its next move on the player's time
+    boolean pondering = true;
+    // the ai thinking on the player's time, null if it is not
+    Future<?> ponderTask = null;
+    // opening book of the ai, null if there is none
+    OpeningBook book = null;
+    // endgame tablebases of the ai, missing tables are not used
+    final Tablebase tablebase = 
+            new Tablebase(new File(Tablebase.DEFAULT_DIRECTORY));
     
     /**
      * Creates a new BoardPanel component
@@ -57,6 +94,8 @@ public class GamePanel extends JComponent implements MouseListener {
         this.setSize(w, h);
         // loads piece images from file
         loadImages();
+        // loads the opening book of the ai, if there is one
+        loadBook();
         // inititalizes the game board for a 2-player game
         newGame();
         // adds a listener for mouse events
@@ -67,6 +106,7 @@ public class GamePanel extends JComponent implements MouseListener {
      * Sets up a new 2-Player game in the panel
      */
     public void newGame() {
+        stopAi();
         // creates a new board
         gameBoard = new Board(true);
         status = GameStatus.Started;
@@ -123,7 +163,12 @@ public class GamePanel extends JComponent implements MouseListener {
         // creates a new game
         newGame();
         // then sets the ai for the board
-        gameBoard.setAi(new Ai(aiColor, aiDepth));
+        Ai ai = new Ai(aiColor, aiDepth);
+        ai.setTimeLimit(aiTimeLimit);
+        ai.setThreads(Runtime.getRuntime().availableProcessors());
+        ai.setOpeningBook(book);
+        ai.setTablebase(tablebase);
+        gameBoard.setAi(ai);
         
         // simulates a click event to prompt the ai to make the first move
         if (aiColor == Piece.Color.White)
@@ -134,6 +179,7 @@ public class GamePanel extends JComponent implements MouseListener {
      * Load the state of the board from file
      */
     public void loadBoard() {
+        stopAi();
         // reset cariables
         selectedPiece = null;
         invalidPiece = null;
@@ -176,6 +222,11 @@ public class GamePanel extends JComponent implements MouseListener {
             
             // read the board from the file
             this.gameBoard = (Board)ois.readObject();
+            // the book and the tablebases are not saved with the ai
+            if (gameBoard.getAi() != null) {
+                gameBoard.getAi().setOpeningBook(book);
+                gameBoard.getAi().setTablebase(tablebase);
+            }
             
             // close the streams
             ois.close();
@@ -248,6 +299,8 @@ public class GamePanel extends JComponent implements MouseListener {
      * Returns the board to it's previous state
      */
     public void undo() {
+        // a move the ai is thinking about is discarded
+        stopAi();
         // resets variables for helper circles
         selectedPiece = null;
         invalidPiece = null;
@@ -270,6 +323,22 @@ public class GamePanel extends JComponent implements MouseListener {
         this.repaint();      
     }
     
+    /**
+     * Loads the opening book of the ai from its default file. The book is
+     *  optional, without one the ai searches for every move.
+     */
+    private void loadBook() {
+        File file = new File(OpeningBook.DEFAULT_FILE);
+        if (!file.exists())
+            return;
+        try {
+            book = OpeningBook.open(file);
+        } catch (IOException e) {
+            // the ai plays without a book
+            book = null;
+        }
+    }
+    
     /**
      * Loads the piece images from a default folder. 
      * ImageIO syntax from: 
@@ -344,7 +413,8 @@ public class GamePanel extends JComponent implements MouseListener {
      * @param e
      */
     public void mousePressed(MouseEvent e) { 
-        if (status == GameStatus.Started) {
+        // clicks are ignored while the ai is thinking
+        if (status == GameStatus.Started && aiWorker == null) {
             invalidPiece = null;
             // get board width and height
             int w = getWidth();
@@ -363,7 +433,7 @@ public class GamePanel extends JComponent implements MouseListener {
                     selectedPiece = gameBoard.getPieceAt(boardPt);
                     if (selectedPiece != null) {  
                         // get the available moves for the piece
-                        okMoves = selectedPiece.getValidMoves(gameBoard, true);
+                        okMoves = gameBoard.getLegalMoves(selectedPiece);
                         // if the piece is of the wrong color, mark as invalid
                         if(selectedPiece.getColor() != gameBoard.getTurn()) {
                             okMoves = null;
@@ -387,50 +457,109 @@ public class GamePanel extends JComponent implements MouseListener {
                     }
                 }
             }         
-            // process an ai move
-            if (gameBoard.getAi() != null && 
-                gameBoard.getAi().getColor() == gameBoard.getTurn()) { 
-                
-                // repaint board immediately, to show the
-                // player's last move
-                this.paintImmediately(0, 0, this.getWidth(), this.getHeight());
-                
-                // get a move from the board's ai
-                Move computerMove = gameBoard.getAi().getMove(gameBoard);
-
-                if (computerMove != null) {
-                    // if a move was returned, make move
-                    gameBoard.doMove(computerMove, false);
-                }
-            }
             
-            // if a side cannot make any valid moves
-            if (gameBoard.gameOver()) {             
-                // repaint board immediately, before JOptionPane is shown.
-                this.paintImmediately(0, 0, this.getWidth(), this.getHeight());
-                
-                // if a king not currently in check, stalemate
-                if (gameBoard.getPieceInCheck() == null) {
-                    status = GameStatus.Stalemate;
-                    JOptionPane.showMessageDialog(this,
-                            "Stalemate!",
-                            "",
-                            JOptionPane.INFORMATION_MESSAGE);
-                } else {
-                // if a king is in check, checkmate
-                    status = GameStatus.Checkmate; 
-                    JOptionPane.showMessageDialog(this,
-                            "Checkmate!",
-                            "",
-                            JOptionPane.INFORMATION_MESSAGE);
-                }
-                   
-            }
+            // if the game goes on and it is the ai's turn, let the ai
+            // think about its move in the background
+            if (!checkGameOver() && gameBoard.getAi() != null && 
+                gameBoard.getAi().getColor() == gameBoard.getTurn())
+                startAi();
             
             this.repaint(); // calls paintComponent
         }       
     }
     
+    /**
+     * Checks if a side cannot make any valid moves, and if so, tells the
+     *  user how the game ended
+     * @return true if the game is over
+     */
+    private boolean checkGameOver() {
+        if (!gameBoard.gameOver())
+            return false;
+        
+        // repaint board immediately, before JOptionPane is shown.
+        this.paintImmediately(0, 0, this.getWidth(), this.getHeight());
+
+        // if a king not currently in check, stalemate
+        if (gameBoard.getPieceInCheck() == null) {
+            status = GameStatus.Stalemate;
+            JOptionPane.showMessageDialog(this,
+                    "Stalemate!",
+                    "",
+                    JOptionPane.INFORMATION_MESSAGE);
+        } else {
+        // if a king is in check, checkmate
+            status = GameStatus.Checkmate; 
+            JOptionPane.showMessageDialog(this,
+                    "Checkmate!",
+                    "",
+                    JOptionPane.INFORMATION_MESSAGE);
+        }
+        return true;
+    }
+    
+    /**
+     * Sets whether the ai thinks about its next move while the player
+     *  thinks about theirs. The ai then answers at once, or with a deeper
+     *  search, if the player makes the move it expected.
+     * @param pondering true to let the ai think on the player's time
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+        if (!pondering)
+            stopPonder();
+    }
+    
+    /**
+     * Starts the ai's search for a move on a background thread
+     */
+    private void startAi() {
+        // the pondering is stopped, its results are used by the search
+        stopPonder();
+        aiProgress = 0;
+        aiWorker = new AiMoveWorker(gameBoard);
+        this.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        aiExecutor.execute(aiWorker);
+    }
+    
+    /**
+     * Lets the ai think about its next move on a background thread, while
+     *  the player thinks about theirs
+     */
+    private void startPonder() {
+        final Ai ai = gameBoard.getAi();
+        final Board copy = gameBoard.clone();
+        ponderTask = aiExecutor.submit(new Runnable() {
+            public void run() {
+                ai.ponder(copy);
+            }
+        });
+    }
+    
+    /**
+     * Stops the ai from thinking on the player's time
+     */
+    private void stopPonder() {
+        if (ponderTask != null) {
+            ponderTask.cancel(true);
+            ponderTask = null;
+        }
+    }
+    
+    /**
+     * Stops the ai if it is thinking about a move. The move is discarded.
+     *  Called before the board is replaced, and when the game is closed.
+     */
+    public void stopAi() {
+        stopPonder();
+        if (aiWorker != null) {
+            aiWorker.cancel(true);
+            aiWorker = null;
+            this.setCursor(Cursor.getDefaultCursor());
+            this.repaint();
+        }
+    }
+    
     /**
      * Overrides the default paintComponent method. 
      * Idea from: 
@@ -460,11 +589,28 @@ public class GamePanel extends JComponent implements MouseListener {
         //  if images have been loaded, draw them
         if (imagesLoaded)
             drawPieces(g, sW, sH);
+        
+        // show how far the ai has got with its move
+        if (aiWorker != null)
+            drawProgress(g, w, sH);
 
         // draw the contents of the buffer to the panel
         gr.drawImage(buffer, 0, 0, this);
     }
            
+    /**
+     * Draws a bar along the bottom of the board showing the progress of the
+     * ai's search
+     * @param g graphics object to draw to
+     * @param w width of the board
+     * @param sH height of square
+     */
+    private void drawProgress(Graphics g, int w, int sH) {
+        int barHeight = Math.max(sH / 10, 2);
+        g.setColor(progressColor);
+        g.fillRect(0, getHeight() - barHeight, (int)(w * aiProgress), barHeight);
+    }
+    
     /**
      * Draws helper circles to graphics object
      * @param g graphics object to draw to
@@ -562,8 +708,9 @@ public class GamePanel extends JComponent implements MouseListener {
      * @return move with destination at pt
      */
     private Move moveWithDestination(Point pt) {
+        int sq = Board.square(pt);
         for(Move m : okMoves)
-            if(m.getMoveTo().equals(pt)) 
+            if(m.getTo() == sq) 
                 return m;
         return null;
     }    
@@ -587,4 +734,90 @@ public class GamePanel extends JComponent implements MouseListener {
      * @param e
      */
     public void mouseClicked(MouseEvent e) { }
+    
+    /**
+     * Searches for the ai's move on a copy of the board, off the event
+     * dispatch thread, and makes the move once it has been found. Progress
+     * is published after every iteration of the search.
+     */
+    private class AiMoveWorker extends SwingWorker<Move, Integer> 
+            implements SearchListener {
+        private final Board board;
+        private final Board copy;
+        private final Ai ai;
+        
+        /**
+         * Creates a new worker. The board is copied on the event dispatch 
+         * thread, so the search does not see the board change.
+         * @param board board the ai is to move on
+         */
+        AiMoveWorker(Board board) {
+            this.board = board;
+            this.copy = board.clone();
+            this.ai = board.getAi();
+        }
+        
+        /**
+         * Searches for the move
+         * @return the move found, for the copy of the board
+         */
+        @Override
+        protected Move doInBackground() {
+            ai.setSearchListener(this);
+            try {
+                return ai.getMove(copy);
+            } finally {
+                ai.setSearchListener(null);
+            }
+        }
+        
+        /**
+         * Publishes the depth the search has reached
+         * @param stats statistics of the search
+         */
+        public void iterationCompleted(SearchStats stats) {
+            publish(stats.getIterations());
+        }
+        
+        /**
+         * Shows the depth reached on the event dispatch thread
+         * @param depths depths reached since the last call
+         */
+        @Override
+        protected void process(List<Integer> depths) {
+            if (aiWorker != this)
+                return;
+            aiProgress = (double)depths.get(depths.size() - 1) / ai.getDepth();
+            repaint();
+        }
+        
+        /**
+         * Makes the move found on the board, unless the search was stopped
+         */
+        @Override
+        protected void done() {
+            // the board has been replaced since the search was started
+            if (aiWorker != this || isCancelled())
+                return;
+            aiWorker = null;
+            setCursor(Cursor.getDefaultCursor());
+            
+            try {
+                Move computerMove = get();
+                if (computerMove != null)
+                    // if a move was returned, make the same move on the board
+                    board.doMove(board.copyMove(computerMove), false);
+            } catch (Exception e) {
+                JOptionPane.showMessageDialog(GamePanel.this,
+                        "The computer could not make a move.\n\n" +
+                        "Error details: " + e.getMessage(),
+                        "Error!",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+            
+            if (!checkGameOver() && pondering)
+                startPonder();
+            repaint();
+        }
+    }
 }
@@ -0,0 +1,28 @@
+package chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for one completed iteration of a search.
+ * The duration of the event is the time the iteration took. Events are
+ * only recorded while a recording with them enabled is running, e.g.
+ * with java -XX:StartFlightRecording.
+ * @author Paul
+ */
+@Name("chess.Iteration")
+@Label("Search Iteration")
+@Category({"Chess", "Search"})
+@Description("An iteration of the ai's search completed")
+final class IterationEvent extends Event {
+    
+    @Label("Depth")
+    int depth;
+    
+    @Label("Nodes")
+    @Description("Positions searched in the iteration by all the threads")
+    long nodes;
+}
@@ -1,6 +1,5 @@
 package chess;
 
-import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.ArrayList;
@@ -9,30 +8,32 @@ import java.util.ArrayList;
  * @author Paul
  */
 public class Knight extends Piece{
+    private static final long serialVersionUID = 7248810157314029234L;
+
        
     private final int imageNumber = 1;
     
     /**
      * Creates a new knight
-     * @param location location of the piece
+     * @param square square of the piece
      * @param color color of the piece
      */
-    public Knight(Point location, Color color) {
+    public Knight(int square, Color color) {
         numMoves = 0;
         this.color = color;
-        this.location = location;
+        this.square = square;
     }
 
     /**
      * Private constructor used for making copies of the piece
-     * @param location location of the piece
+     * @param square square of the piece
      * @param color color of the piece
      * @param moves the number of moves made by the piece
      */
-    private Knight(Point location, Color color, int moves) {
+    private Knight(int square, Color color, int moves) {
         this.numMoves = moves;
         this.color = color;
-        this.location = location;
+        this.square = square;
     }
     
     /**
@@ -67,8 +68,7 @@ public class Knight extends Piece{
      * @return a copy of the knight
      */
     public Piece clone() {
-        return new Knight(new Point(this.location.x, this.location.y),
-                this.color, this.numMoves);
+        return new Knight(this.square, this.color, this.numMoves);
     }
     
     /**
@@ -79,53 +79,35 @@ public class Knight extends Piece{
      * @return List containing valid move points
      */
     public List<Move> getValidMoves(Board board, boolean checkKing) {       
-        int x = location.x;
-        int y = location.y;
-
         List<Move> moves = new ArrayList<Move>();
 
         // if no board given, return empty list
         if (board == null)
             return moves;
         
+        // legal moves are generated by the board, which finds pins and
+        // checks once for all the pieces
+        if (checkKing)
+            return board.getLegalMoves(this);
+        
         // check L-shapes
-        addIfValid(board, moves, new Point(x + 1, y + 2));
-        addIfValid(board, moves, new Point(x - 1, y + 2));
-        addIfValid(board, moves, new Point(x + 1, y - 2));
-        addIfValid(board, moves, new Point(x - 1, y - 2));
-        addIfValid(board, moves, new Point(x + 2, y - 1));
-        addIfValid(board, moves, new Point(x + 2, y + 1));
-        addIfValid(board, moves, new Point(x - 2, y - 1));
-        addIfValid(board, moves, new Point(x - 2, y + 1));    
+        for(long targets = Attacks.KNIGHT[square]; targets != 0; targets &= targets - 1)
+            addIfValid(board, moves, Long.numberOfTrailingZeros(targets));
 
-        // check that move doesn't put own king in check
-        if (checkKing)
-            for(int i = 0; i < moves.size(); i++)
-                if (board.movePutsKingInCheck(moves.get(i), this.color)) {
-                    // if move would put king it check, it is invalid and
-                    // is removed from the list
-                    moves.remove(moves.get(i));
-                    // iterator is decremented due to the size of the list
-                    // decreasing.
-                    i--;
-                }
         return moves;
     }
     
     /**
      * Checks if a given move is valid
      * @param list list to add the move to
-     * @param pt move to check validity of
+     * @param sq square to check validity of
      */
-    private void addIfValid(Board board, List<Move> list, Point pt) {
-        // if the location is valid
-        if(board.validLocation(pt)) {
-            // and the location does not contain same color piece
-            Piece pc = board.getPieceAt(pt);
-            if(pc == null || pc.getColor() != this.color) {
-                // all the move to the list
-                list.add(new Move(this, pt, pc));
-            }
+    private void addIfValid(Board board, List<Move> list, int sq) {
+        // if the square does not contain same color piece
+        Piece pc = board.getPieceAt(sq);
+        if(pc == null || pc.getColor() != this.color) {
+            // all the move to the list
+            list.add(new Move(this, sq, pc));
         }
     }
 }
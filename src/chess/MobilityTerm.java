@@ -0,0 +1,95 @@
+package chess;
+
+/**
+ * Scores the mobility of the pieces by the squares they attack that are not
+ * held by a piece of their own color. Attacks are looked up from the attack
+ * tables without checking if the moves are legal, which makes the term 
+ * cheap enough to use at every leaf of the search.
+ * @author Paul
+ */
+public class MobilityTerm implements EvaluationTerm {
+    private static final long serialVersionUID = 8425823559263778476L;
+    
+    // weight used when none is given, in percent
+    public static final int DEFAULT_WEIGHT = 100;
+    
+    // centipawns per attacked square, by piece type. Pawns and kings are 
+    // not counted, and queens count less as they attack many squares.
+    private static final int[] SQUARE_VALUE = {0, 4, 5, 2, 1, 0};
+    
+    // percentage the term is scaled by
+    private int weight;
+    
+    /**
+     * Creates a mobility term with the default weight
+     */
+    public MobilityTerm() {
+        this(DEFAULT_WEIGHT);
+    }
+    
+    /**
+     * Creates a mobility term
+     * @param weight percentage to scale the term by, 0 to turn it off
+     */
+    public MobilityTerm(int weight) {
+        this.weight = weight;
+    }
+    
+    /**
+     * Sets the weight of the term
+     * @param weight percentage to scale the term by, 0 to turn it off
+     */
+    public void setWeight(int weight) {
+        this.weight = weight;
+    }
+    
+    /**
+     * Returns the weight of the term
+     * @return percentage the term is scaled by
+     */
+    public int getWeight() {
+        return weight;
+    }
+    
+    /**
+     * Evaluates the mobility of both colors
+     * @param board board to evaluate
+     * @return white's mobility score minus black's, in centipawns
+     */
+    public int evaluate(Board board) {
+        if (weight == 0)
+            return 0;
+        int score = mobility(board, Piece.Color.White) 
+                - mobility(board, Piece.Color.Black);
+        return score * weight / 100;
+    }
+    
+    /**
+     * Returns the mobility score of the pieces of one color
+     * @param board board to evaluate
+     * @param color color of the pieces
+     * @return mobility score in centipawns
+     */
+    private static int mobility(Board board, Piece.Color color) {
+        long occupied = board.getOccupied();
+        long targets = ~board.getOccupancy(color);
+        int score = 0;
+        for(int type = PackedMove.KNIGHT; type <= PackedMove.QUEEN; type++) {
+            for(long pieces = board.getBitboard(color, type); pieces != 0; 
+                    pieces &= pieces - 1) {
+                int sq = Long.numberOfTrailingZeros(pieces);
+                long attacks;
+                if (type == PackedMove.KNIGHT)
+                    attacks = Attacks.KNIGHT[sq];
+                else if (type == PackedMove.BISHOP)
+                    attacks = Attacks.bishop(sq, occupied);
+                else if (type == PackedMove.ROOK)
+                    attacks = Attacks.rook(sq, occupied);
+                else
+                    attacks = Attacks.queen(sq, occupied);
+                score += Long.bitCount(attacks & targets) * SQUARE_VALUE[type];
+            }
+        }
+        return score;
+    }
+}
@@ -8,29 +8,53 @@ import java.awt.Point;
  */
 public class Move {
     private Piece toMove;
-    private Point moveTo;
+    // square the piece moves to
+    private int moveTo;
     private Piece toCapture;
+    // type of piece a pawn is promoted to, 0 to choose when the move is made
+    private int promotion = 0;
     
     /**
      * Creates a new move object
      * @param toMove the piece to move
-     * @param moveTo the location to move to
+     * @param moveTo the square to move to
      * @param toCapture the piece captured, null if none
      */
-    public Move(Piece toMove, Point moveTo, Piece toCapture) {
+    public Move(Piece toMove, int moveTo, Piece toCapture) {
         this.toMove = toMove;
         this.moveTo = moveTo;
         this.toCapture = toCapture;
     }
     
     /**
-     * Returns the destination of the move
-     * @return the destination of the move
+     * Creates a new move object that promotes a pawn to the given type
+     * @param toMove the pawn to move
+     * @param moveTo the square to move to
+     * @param toCapture the piece captured, null if none
+     * @param promotion type of piece to promote to, as given by 
+     *  Piece.getImageNumber()
      */
-    public Point getMoveTo() {
+    public Move(Piece toMove, int moveTo, Piece toCapture, int promotion) {
+        this(toMove, moveTo, toCapture);
+        this.promotion = promotion;
+    }
+    
+    /**
+     * Returns the square the move ends on
+     * @return the destination square of the move
+     */
+    public int getTo() {
         return moveTo;
     }
     
+    /**
+     * Returns the destination of the move, for drawing it
+     * @return a new point at the destination of the move
+     */
+    public Point getMoveTo() {
+        return Squares.toPoint(moveTo);
+    }
+    
     /**
      * Returns the piece being moved
      * @return the piece being moved
@@ -46,4 +70,13 @@ public class Move {
     public Piece getCaptured() {
         return toCapture;
     }
+    
+    /**
+     * Returns the type of piece a pawn is promoted to by the move
+     * @return type as given by Piece.getImageNumber(), 0 if the type is 
+     *  chosen when the move is made
+     */
+    public int getPromotion() {
+        return promotion;
+    }
 }
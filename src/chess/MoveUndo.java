@@ -0,0 +1,28 @@
+package chess;
+
+/**
+ * Holds the information needed to take back a move made with
+ * Board.makeMove(). Records are reused by the board, so a search does not
+ * allocate new ones for every move.
+ * @author Paul
+ */
+class MoveUndo {
+    // the move that was made, and the piece that made it
+    int move;
+    Piece moved;
+    
+    // the captured piece and its index in the board's piece list
+    Piece captured;
+    int capturedIndex;
+    
+    // the piece a pawn was promoted to, and the pawn's index in the list
+    Piece promoted;
+    int pawnIndex;
+    
+    // squares of the pawns whose en passant flag was cleared by the move
+    long enPassantSquares;
+    
+    // state of the board before the move
+    Piece inCheck;
+    Piece lastMoved;
+}
@@ -0,0 +1,166 @@
+package chess;
+
+/**
+ * Encodes moves as 32-bit integers, so the search can generate and store
+ * them without creating objects. Piece types are given by
+ * Piece.getImageNumber(), squares by Board.square().
+ *  [0-5]: from square [6-11]: to square [12-14]: promotion type
+ *  [15-17]: moving piece type [18-20]: captured piece type
+ *  [21]: capture [22]: castle [23]: en passant [24]: double pawn push
+ *  A move always changes squares, so an encoded move is never 0.
+ * @author Paul
+ */
+public final class PackedMove {
+
+    // piece types, as given by Piece.getImageNumber()
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+    
+    // move flags
+    public static final int CAPTURE = 1 << 21;
+    public static final int CASTLE = 1 << 22;
+    public static final int EN_PASSANT = 1 << 23;
+    public static final int DOUBLE_PUSH = 1 << 24;
+    
+    // bits that tell apart the moves of a position: squares and promotion
+    private static final int KEY_MASK = 0x7FFF;
+    
+    private PackedMove() {
+    }
+    
+    /**
+     * Encodes a move
+     * @param from square the piece moves from
+     * @param to square the piece moves to
+     * @param piece type of the moving piece
+     * @param captured type of the captured piece, -1 if none
+     * @param promotion type the pawn is promoted to, 0 if not a promotion
+     * @param flags CASTLE, EN_PASSANT and DOUBLE_PUSH, or 0
+     * @return the encoded move
+     */
+    public static int encode(int from, int to, int piece, int captured,
+            int promotion, int flags) {
+        int move = from | (to << 6) | (promotion << 12) | (piece << 15) | flags;
+        if (captured >= 0)
+            move |= CAPTURE | (captured << 18);
+        return move;
+    }
+    
+    /**
+     * Returns the square a move starts from
+     * @param move encoded move
+     * @return from square
+     */
+    public static int from(int move) {
+        return move & 0x3F;
+    }
+    
+    /**
+     * Returns the square a move ends on
+     * @param move encoded move
+     * @return to square
+     */
+    public static int to(int move) {
+        return (move >>> 6) & 0x3F;
+    }
+    
+    /**
+     * Returns the type a pawn is promoted to
+     * @param move encoded move
+     * @return promotion type, 0 if the move is not a promotion
+     */
+    public static int promotion(int move) {
+        return (move >>> 12) & 0x7;
+    }
+    
+    /**
+     * Returns the type of the moving piece
+     * @param move encoded move
+     * @return piece type
+     */
+    public static int piece(int move) {
+        return (move >>> 15) & 0x7;
+    }
+    
+    /**
+     * Returns the type of the captured piece
+     * @param move encoded move
+     * @return captured piece type, -1 if nothing is captured
+     */
+    public static int captured(int move) {
+        return (move & CAPTURE) == 0 ? -1 : (move >>> 18) & 0x7;
+    }
+    
+    /**
+     * Checks if a move captures a piece
+     * @param move encoded move
+     * @return true if a piece is captured
+     */
+    public static boolean isCapture(int move) {
+        return (move & CAPTURE) != 0;
+    }
+    
+    /**
+     * Checks if a move promotes a pawn
+     * @param move encoded move
+     * @return true if the move is a promotion
+     */
+    public static boolean isPromotion(int move) {
+        return promotion(move) != 0;
+    }
+    
+    /**
+     * Checks if a move is castling
+     * @param move encoded move
+     * @return true if the king castles
+     */
+    public static boolean isCastle(int move) {
+        return (move & CASTLE) != 0;
+    }
+    
+    /**
+     * Checks if a move captures en passant
+     * @param move encoded move
+     * @return true if a pawn is captured en passant
+     */
+    public static boolean isEnPassant(int move) {
+        return (move & EN_PASSANT) != 0;
+    }
+    
+    /**
+     * Checks if a pawn moves two squares forward
+     * @param move encoded move
+     * @return true if the move is a double pawn push
+     */
+    public static boolean isDoublePush(int move) {
+        return (move & DOUBLE_PUSH) != 0;
+    }
+    
+    /**
+     * Returns the part of a move that identifies it among the moves of a
+     * position: its squares and promotion. Used to store moves in the
+     * transposition table and as killer moves.
+     * @param move encoded move
+     * @return key of the move, never 0
+     */
+    public static int key(int move) {
+        return move & KEY_MASK;
+    }
+    
+    /**
+     * Returns a move in coordinate notation: the from and to squares, and
+     * the letter of the type a pawn is promoted to
+     * @param move encoded move
+     * @return the move, such as "e2e4" or "a7a8q"
+     */
+    public static String toString(int move) {
+        String name = Squares.name(from(move)) + Squares.name(to(move));
+        if (isPromotion(move))
+            name += "pnbrqk".charAt(promotion(move));
+        return name;
+    }
+}
@@ -1,6 +1,5 @@
 package chess;
 
-import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.ArrayList;
@@ -9,6 +8,7 @@ import java.util.ArrayList;
  * @author Paul
  */
 public class Pawn extends Piece {
+    private static final long serialVersionUID = 6746698385658615251L;
     
     private final int imageNumber = 0;
     
@@ -16,28 +16,28 @@ public class Pawn extends Piece {
     
     /**
      * Creates a new pawn
-     * @param location location of the piece
+     * @param square square of the piece
      * @param color color of the piece
      */
-    public Pawn(Point location, Color color) {
+    public Pawn(int square, Color color) {
         this.numMoves = 0;
         this.color = color;
-        this.location = location;
+        this.square = square;
     }    
     
     /**
      * Private constructor used to make copies of the piece
-     * @param location location of the piece
+     * @param square square of the piece
      * @param color color of the piece
      * @param moves number of moves the piece has made
      * @param captureableEnPassant whether the pawn can currently be captured 
      *  "en passant" or not
      */
-    private Pawn(Point location, Color color, int moves, boolean captureableEnPassant) {
+    private Pawn(int square, Color color, int moves, boolean captureableEnPassant) {
         enPassantOk = captureableEnPassant;
         this.numMoves = moves;
         this.color = color;
-        this.location = location;
+        this.square = square;
     }
 
     /**
@@ -45,8 +45,7 @@ public class Pawn extends Piece {
      * @return a copy of the pawn
      */
     public Piece clone() {
-        return new Pawn(new Point(this.location.x, this.location.y),
-                this.color, this.numMoves, this.enPassantOk);
+        return new Pawn(this.square, this.color, this.numMoves, this.enPassantOk);
     }
     
     /**
@@ -89,6 +88,11 @@ public class Pawn extends Piece {
         // if no board given, return empty list
         if (board == null)
             return moves;
+        
+        // legal moves are generated by the board, which finds pins and
+        // checks once for all the pieces
+        if (checkKing)
+            return board.getLegalMoves(this);
 
         // checks moves where the pawn advances a rank
         advance(board, moves);
@@ -97,17 +101,6 @@ public class Pawn extends Piece {
         // checks en passant moves
         enPassant(board, moves);
 
-        // check that move doesn't put own king in check
-        if (checkKing)
-            for(int i = 0; i < moves.size(); i++)
-                if (board.movePutsKingInCheck(moves.get(i), this.color)) {
-                    // if move would put king it check, it is invalid and
-                    // is removed from the list
-                    moves.remove(moves.get(i));
-                    // iterator is decremented due to the size of the list
-                    // decreasing.
-                    i--;
-                }
         return moves;
     }
     
@@ -116,29 +109,21 @@ public class Pawn extends Piece {
      * @param moves the list of moves
      */
     private void advance(Board board, List<Move> moves) {
-        int x = location.x;
-        int y = location.y;
-        
         Piece pc;
-        Point pt;
-        int move;
-        
-        if (color == Color.White)
-            move = -1;
-        else
-            move = 1;
+        int sq;
+        int forward = forward();
                 
-        pt = new Point(x, y + move);
-        if (board.validLocation(pt)) {
-            pc = board.getPieceAt(pt);            
+        sq = Squares.step(square, forward);
+        if (sq != Squares.OFF_BOARD) {
+            pc = board.getPieceAt(sq);            
             if(pc == null) {
-                moves.add(new Move(this, pt, pc));     
+                moves.add(new Move(this, sq, pc));     
                 
-                pt = new Point(x, y + move * 2);
-                if (board.validLocation(pt)) {
-                    pc = board.getPieceAt(pt);
+                sq = Squares.step(sq, forward);
+                if (sq != Squares.OFF_BOARD) {
+                    pc = board.getPieceAt(sq);
                     if(pc == null && numMoves == 0)
-                        moves.add(new Move(this, pt, pc));
+                        moves.add(new Move(this, sq, pc));
                 }
             } 
         }
@@ -149,31 +134,16 @@ public class Pawn extends Piece {
      * @param moves the list of moves
      */
     private void capture(Board board, List<Move> moves) {
-        int x = location.x;
-        int y = location.y;
-        
         Piece pc;
-        Point pt;
-        int move;
-        
-        if (color == Color.White)
-            move = -1;
-        else
-            move = 1;
+        int sq;
             
-        pt = new Point(x - 1, y + move);
-        if (board.validLocation(pt)) {
-            pc = board.getPieceAt(pt);            
-            if (pc != null)
-                if(this.color != pc.getColor())
-                    moves.add(new Move(this, pt, pc));    
-        }
-        pt = new Point(x + 1, y + move);
-        if (board.validLocation(pt)) {
-            pc = board.getPieceAt(pt);           
+        for(long attacks = Attacks.PAWN[color.ordinal()][square]; attacks != 0;
+                attacks &= attacks - 1) {
+            sq = Long.numberOfTrailingZeros(attacks);
+            pc = board.getPieceAt(sq);            
             if (pc != null)
                 if(this.color != pc.getColor())
-                    moves.add(new Move(this, pt, pc));       
+                    moves.add(new Move(this, sq, pc));    
         }
     }
     
@@ -182,38 +152,42 @@ public class Pawn extends Piece {
      * @param moves the list of moves
      */
     private void enPassant(Board board, List<Move> moves) {
-        int x = location.x;
-        int y = location.y; 
+        int y = Squares.y(square);
+        int forward = forward();
         
-        if (this.color == Color.White && this.location.y == 3) {
-            if(canCaptureEnPassant(board, new Point(x - 1, y)))
-                moves.add(new Move(this, new Point(x - 1, y - 1),
-                        board.getPieceAt(new Point(x - 1, y))));
-            if(canCaptureEnPassant(board, new Point(x + 1, y)))
-                moves.add(new Move(this, new Point(x + 1, y - 1),
-                        board.getPieceAt(new Point(x + 1, y)))); 
-        }
-        if (this.color == Color.Black && this.location.y == 4) {
-            if(canCaptureEnPassant(board, new Point(x - 1, y)))
-                moves.add(new Move(this, new Point(x - 1, y + 1),
-                        board.getPieceAt(new Point(x - 1, y))));
-            if(canCaptureEnPassant(board, new Point(x + 1, y)))
-                moves.add(new Move(this, new Point(x + 1, y + 1),
-                        board.getPieceAt(new Point(x + 1, y))));            
+        if ((this.color == Color.White && y == 3) ||
+                (this.color == Color.Black && y == 4)) {
+            for(int side = -1; side <= 1; side += 2) {
+                int sq = Squares.step(square, side);
+                if(sq != Squares.OFF_BOARD && canCaptureEnPassant(board, sq))
+                    moves.add(new Move(this, Squares.step(square, forward + side),
+                            board.getPieceAt(sq)));
+            }
         }
     }
     
+    /**
+     * Returns the mailbox offset of a step forward for the pawn
+     * @return offset of one square towards the opponent's side
+     */
+    private int forward() {
+        if (color == Color.White)
+            return Squares.offset(0, -1);
+        else
+            return Squares.offset(0, 1);
+    }
+    
     /**
      * Checks if the pawn can capture another pawn by en passant
-     * @param pt location of the other pawn
+     * @param sq square of the other pawn
      * @return true if can be captured
      */
-    private boolean canCaptureEnPassant(Board board, Point pt) {
-        Piece temp = board.getPieceAt(pt);
+    private boolean canCaptureEnPassant(Board board, int sq) {
+        Piece temp = board.getPieceAt(sq);
         if(temp != null)
             if (temp instanceof Pawn && temp.getColor() !=  this.color)
                 if (((Pawn)temp).enPassantOk)
                     return true;
         return false;
     }
-}
+}
\ No newline at end of file
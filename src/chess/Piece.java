@@ -2,6 +2,10 @@ package chess;
 
 import java.awt.Point;
 import java.util.List;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.awt.image.BufferedImage;
 /**
@@ -9,6 +13,18 @@ import java.awt.image.BufferedImage;
  * @author Paul
  */
 public abstract class Piece implements Serializable, Cloneable{
+    // serialVersionUIDs of Piece and its subclasses are pinned to the values
+    // of the original classes, to keep old saves loadable
+    private static final long serialVersionUID = 6629778221759669293L;
+    
+    // the square of a piece is saved as the location point used by the
+    // original classes, so saves stay compatible both ways
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("numMoves", int.class),
+        new ObjectStreamField("color", Color.class),
+        new ObjectStreamField("location", Point.class)
+    };
+
     public static enum Color {White, Black};
 
     // [0]:pawn [1]:knight [2]:bishop [3]:rook [4]:queen [5]:king
@@ -17,7 +33,11 @@ public abstract class Piece implements Serializable, Cloneable{
     
     protected int numMoves;
     protected Color color;
-    protected Point location;
+    // square index of the piece, see Board.square()
+    protected int square;
+    // position of the piece in the piece list of its board, kept up to
+    // date by the board so taking a piece off does not search the list
+    int listIndex;
     
     /**
      * Returns the number of moves made by the piece
@@ -36,21 +56,38 @@ public abstract class Piece implements Serializable, Cloneable{
     }
     
     /**
-     * Moves the piece to a new location. Use getValidMoves() to check if a 
-     * point is valid.
-     * @param p the Point to move to
+     * Moves the piece to a new square. Use getValidMoves() to check if a 
+     * square is valid.
+     * @param sq the square to move to
      */
-    public void moveTo(Point p) {
-        this.location = p;
+    public void moveTo(int sq) {
+        this.square = sq;
         numMoves++;
     }
     
     /**
-     * Returns the location (Point) of the piece
-     * @return the location of the piece
+     * Returns the piece to a previous square, reversing a call to moveTo()
+     * @param sq the square to return to
+     */
+    void undoMoveTo(int sq) {
+        this.square = sq;
+        numMoves--;
+    }
+    
+    /**
+     * Returns the square of the piece
+     * @return square index of the piece
+     */
+    public int getSquare() {
+        return this.square;
+    }
+    
+    /**
+     * Returns the location (Point) of the piece, for drawing it
+     * @return a new point at the location of the piece
      */
     public Point getLocation() {
-        return this.location;
+        return Squares.toPoint(square);
     }
     
     /**
@@ -106,5 +143,30 @@ public abstract class Piece implements Serializable, Cloneable{
     public static void setBlackImages(BufferedImage[] images) {
         blackImages = images;
     }
+    
+    /**
+     * Writes the piece, with its square as a location point
+     * @param out stream to write to
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("numMoves", numMoves);
+        fields.put("color", color);
+        fields.put("location", getLocation());
+        out.writeFields();
+    }
+    
+    /**
+     * Reads a piece, taking its square from the saved location point
+     * @param in stream to read from
+     */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        numMoves = fields.get("numMoves", 0);
+        color = (Color)fields.get("color", null);
+        Point location = (Point)fields.get("location", null);
+        square = Board.square(location);
+    }
 
-}
+}
\ No newline at end of file
@@ -1,6 +1,5 @@
 package chess;
 
-import java.awt.Point;
 import java.awt.image.BufferedImage;
 import java.util.List;
 import java.util.ArrayList;
@@ -9,30 +8,32 @@ import java.util.ArrayList;
  * @author Paul
  */
 public class Rook extends Piece{
+    private static final long serialVersionUID = -724474323117034385L;
+
        
     private final int imageNumber = 3;
     
     /**
      * Creates a new rook
-     * @param location location of the piece
+     * @param square square of the piece
      * @param color color of the piece
      */
-    public Rook(Point location, Color color) {
+    public Rook(int square, Color color) {
         this.numMoves = 0;
         this.color = color;
-        this.location = location;
+        this.square = square;
     }
 
     /**
      * Private constructor used for making copies of the piece
-     * @param location location of the piece
+     * @param square square of the piece
      * @param color color of the piece
      * @param moves the number of moves made by the piece
      */
-    private Rook(Point location, Color color, int moves) {
+    private Rook(int square, Color color, int moves) {
         this.numMoves = moves;
         this.color = color;
-        this.location = location;
+        this.square = square;
     }
     
     /**
@@ -67,8 +68,7 @@ public class Rook extends Piece{
      * @return a copy of the rook
      */
     public Piece clone() {
-        return new Rook(new Point(this.location.x, this.location.y),
-                this.color, this.numMoves);
+        return new Rook(this.square, this.color, this.numMoves);
     }
     
     /**
@@ -85,49 +85,28 @@ public class Rook extends Piece{
         if (board == null)
             return moves;
         
-        addMovesInLine(board, moves, 1, 0);
-        addMovesInLine(board, moves, 0, 1);
-        addMovesInLine(board, moves, -1, 0);
-        addMovesInLine(board, moves, 0, -1);
-
-        // check that move doesn't put own king in check
+        // legal moves are generated by the board, which finds pins and
+        // checks once for all the pieces
         if (checkKing)
-            for(int i = 0; i < moves.size(); i++)
-                if (board.movePutsKingInCheck(moves.get(i), this.color)) {
-                    // if move would put king it check, it is invalid and
-                    // is removed from the list
-                    moves.remove(moves.get(i));
-                    // iterator is decremented due to the size of the list
-                    // decreasing.
-                    i--;
-                }
+            return board.getLegalMoves(this);
+        
+        // add moves to the attacked squares that do not hold a piece of
+        // the same color
+        addMoves(board, moves, Attacks.rook(square, board.getOccupied()));
+
         return moves;
     }
     
     /**
-     * Adds valid moves in a straight line to the list
+     * Adds valid moves to the attacked squares to the list
      * @param moves list to add to
-     * @param xi x direction (-1/0/1)
-     * @param yi y direction (-1/0/1)
+     * @param attacks squares attacked by the piece
      */
-    private void addMovesInLine(Board board, List<Move> moves, int xi, int yi) {
-        int x = location.x;
-        int y = location.y;
-        
-        Point pt = new Point(x + xi, y + yi);
-        Piece pc;
-        
-        while(board.validLocation(pt)) {
-            pc = board.getPieceAt(pt);
-            if(pc == null) {
-                moves.add(new Move(this, pt, pc));
-            } else if(pc.getColor() != this.color) {
-                moves.add(new Move(this, pt, pc));
-                break;
-            } else {
-                break;
-            }
-            pt = new Point(pt.x + xi, pt.y + yi);
+    private void addMoves(Board board, List<Move> moves, long attacks) {
+        attacks &= ~board.getOccupancy(this.color);
+        for(; attacks != 0; attacks &= attacks - 1) {
+            int sq = Long.numberOfTrailingZeros(attacks);
+            moves.add(new Move(this, sq, board.getPieceAt(sq)));
         }
     }
 }
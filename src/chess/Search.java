@@ -0,0 +1,682 @@
+package chess;
+
+/**
+ * The min/max search of an Ai, with alpha-beta pruning, a transposition
+ * table, move ordering and a quiescence search at the leaves. Every thread
+ * searching for the ai has its own Search, with its own killer moves and
+ * history scores. The transposition table is shared.
+ *  Moves are encoded by PackedMove and generated into buffers kept for 
+ *  each ply, so searching allocates no move objects.
+ * @author Paul
+ */
+class Search {
+    
+    // move ordering scores: hash move, captures (most valuable victim, 
+    // least valuable attacker), killer moves, then quiet moves by history
+    private static final int HASH_MOVE_SCORE = 1000000;
+    private static final int CAPTURE_SCORE = 100000;
+    private static final int KILLER_SCORE = 90000;
+    // history scores are halved when one gets this large
+    private static final int HISTORY_LIMIT = 80000;
+    // deepest ply that killer moves are kept for
+    private static final int MAX_PLY = 64;
+    private static final int[] NO_KILLERS = new int[2];
+    
+    // most captures searched in a row at the leaves of the search
+    private static final int MAX_QUIESCENCE_DEPTH = 8;
+    // captures that cannot bring the value within this margin of the
+    // search window are not searched
+    private static final int DELTA_MARGIN = 200;
+    
+    // deepest ply that move buffers are kept for: the main search and the
+    // captures searched after it
+    private static final int MAX_SEARCH_PLY = MAX_PLY + MAX_QUIESCENCE_DEPTH;
+    
+    // nodes are reported to the ai in batches of this size
+    private static final int NODE_BATCH = 64;
+    
+    // values this close to Ai.TABLEBASE_WIN are tablebase wins and losses,
+    // counted in plies to mate
+    private static final int TABLEBASE_RANGE = 1 << 16;
+    
+    private final Ai ai;
+    private final TranspositionTable table;
+    
+    // killer moves by ply, and history scores by color and move code
+    private final int[][] killers = new int[MAX_PLY][2];
+    private final int[][] history;
+    
+    // generated moves and their ordering scores by ply, each row created 
+    // when the ply is first reached and reused after that
+    private final int[][] moveStack = new int[MAX_SEARCH_PLY + 1][];
+    private final int[][] scoreStack = new int[MAX_SEARCH_PLY + 1][];
+    // pieces and squares of a position looked up in the tablebases
+    private final int[] tablebasePieces = new int[Tablebase.MAX_PIECES];
+    private final int[] tablebaseSquares = new int[Tablebase.MAX_PIECES];
+    
+    // depth of the current iteration
+    private int rootDepth;
+    // nodes searched but not yet reported to the ai
+    private int pendingNodes = 0;
+    // set to stop this search only, without stopping the ai
+    private volatile boolean cancelled = false;
+    // counts of this thread, added to the ai's statistics when it is done
+    private final SearchStats stats = new SearchStats();
+    // root split iteration this search was last reset for, when it is kept
+    // by a thread of the ai's pool
+    private int iteration = 0;
+    
+    /**
+     * Creates a new search
+     * @param ai the ai to search for
+     * @param table transposition table to use
+     * @param history history scores to start with, by color and move code
+     */
+    Search(Ai ai, TranspositionTable table, int[][] history) {
+        this.ai = ai;
+        this.table = table;
+        this.history = history;
+    }
+    
+    /**
+     * Prepares for the search of a new position. Killer moves are only 
+     * relevant to the previous position, history is kept but given less
+     * weight.
+     */
+    void newPosition() {
+        for(int[] killer : killers) {
+            killer[0] = 0;
+            killer[1] = 0;
+        }
+        ageHistory();
+    }
+    
+    /**
+     * Prepares a search kept by a thread of the pool for an iteration of a
+     *  root split search: the killer moves are cleared and the history
+     *  scores are copied from the search of the calling thread. Does
+     *  nothing if the search was already prepared for the iteration.
+     * @param main search of the calling thread
+     * @param number number of the iteration
+     */
+    void startIteration(Search main, int number) {
+        if (iteration == number)
+            return;
+        iteration = number;
+        for(int[] killer : killers) {
+            killer[0] = 0;
+            killer[1] = 0;
+        }
+        for(int i = 0; i < history.length; i++)
+            System.arraycopy(main.history[i], 0, history[i], 0, 
+                    history[i].length);
+    }
+    
+    /**
+     * Returns a copy of the history scores
+     * @return history scores by color and move code
+     */
+    int[][] copyHistory() {
+        int[][] copy = new int[history.length][];
+        for(int i = 0; i < history.length; i++)
+            copy[i] = history[i].clone();
+        return copy;
+    }
+    
+    /**
+     * Reports the nodes searched so far to the ai
+     */
+    void flushNodes() {
+        ai.countNodes(pendingNodes);
+        stats.nodes += pendingNodes;
+        pendingNodes = 0;
+    }
+    
+    /**
+     * Returns the statistics this search has counted since they were last
+     * taken by the ai
+     * @return statistics of this thread
+     */
+    SearchStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * Stops this search, the searches of other threads carry on
+     */
+    void cancel() {
+        cancelled = true;
+    }
+    
+    /**
+     * Checks if this search has been stopped, by the ai or by cancel()
+     * @return true if the search should be stopped
+     */
+    boolean isStopped() {
+        return cancelled || ai.isStopped();
+    }
+    
+    /**
+     * Counts a searched position and checks if the search has been stopped
+     * @return true if the search should be stopped
+     */
+    private boolean outOfBudget() {
+        if (++pendingNodes == NODE_BATCH)
+            flushNodes();
+        return isStopped();
+    }
+    
+    /**
+     * Searches all the moves of the ai to the given depth, one at a time
+     * @param game current state of the board
+     * @param moves the moves that can be made
+     * @param count number of moves
+     * @param depth depth of the search
+     * @return best move, 0 if the search was stopped before any move was 
+     *  searched
+     */
+    int searchRoot(Board game, int[] moves, int count, int depth) {
+        rootDepth = depth;
+        
+        // initialize best value and best move variables
+        int bestValue = Integer.MIN_VALUE;
+        int bestMove = 0;
+        
+        // get the best move for the ai (max) from the available moves
+        for (int i = 0; i < count; i++) {
+            int m = moves[i];
+            // get the value of the move (min)
+            game.makeMove(m);
+            int moveValue = min(game, depth - 1, bestValue, Integer.MAX_VALUE);
+            game.unmakeMove();
+            
+            if (isStopped())
+                break;
+            
+            // if the value is > than bestValue, current move is best
+            if (moveValue > bestValue || bestValue == Integer.MIN_VALUE) {
+                bestValue = moveValue;
+                bestMove = m;
+            }
+        }
+        
+        return bestMove;
+    }
+    
+    /**
+     * Searches a single move of the ai to the given depth
+     * @param game current state of the board
+     * @param m move to search
+     * @param depth depth of the search
+     * @param alpha value the move has to beat
+     * @return value of the move, alpha or less if it does not beat alpha
+     */
+    int searchMove(Board game, int m, int depth, int alpha) {
+        rootDepth = depth;
+        game.makeMove(m);
+        int moveValue = min(game, depth - 1, alpha, Integer.MAX_VALUE);
+        game.unmakeMove();
+        return moveValue;
+    }
+    
+    /**
+     * Returns the value of the best move for the ai for the given board
+     * @param game game state after the the last player move
+     * @param depth current depth of the analysis
+     * @param alpha best max move
+     * @param beta best min move
+     * @return value of the move
+     */
+    private int max(Board game, int depth, int alpha, int beta) {
+        // the value is discarded if the search is stopped
+        if (outOfBudget())
+            return alpha;
+        
+        // when the depth limit is reached, resolve captures before 
+        // evaluating the board
+        if (depth == 0)
+            return quiesceMax(game, alpha, beta, MAX_QUIESCENCE_DEPTH, rootDepth);
+
+        int ply = rootDepth - depth;
+        // use the stored result if the position has been searched before
+        long entry = table.probe(game.getHashKey());
+        stats.tableProbes++;
+        if (isUsable(entry, depth, alpha, beta, ply)) {
+            stats.tableHits++;
+            return fromTable(TranspositionTable.score(entry), ply);
+        }
+
+        // positions with few pieces have an exact value in the tablebases,
+        // which is stored so the next visit finds it in the table
+        int result = ai.probeTablebase(game, tablebasePieces, tablebaseSquares);
+        if (result != Tablebase.UNKNOWN) {
+            stats.tablebaseHits++;
+            int value = ai.valueOfTablebase(game, result, ply);
+            storeResult(game, depth, ply, value, Integer.MIN_VALUE, 
+                    Integer.MAX_VALUE, 0);
+            return value;
+        }
+
+        int[] possibleMoves = movesAt(ply);
+        int count = game.generateMoves(possibleMoves, 0);
+
+        // if no moves can be made, game has ended
+        if (count == 0)
+            return ai.valueOfGameOver(game);
+        
+        orderMoves(game, possibleMoves, count, TranspositionTable.move(entry), ply);
+
+        int alphaOriginal = alpha;
+        int bestMove = 0;
+        
+        // get the best move for the ai (max) from the available moves
+        for(int i = 0; i < count; i++) {
+            int m = possibleMoves[i];
+            // get the value of the move
+            game.makeMove(m);
+            int moveValue = min(game, depth - 1, alpha, beta);
+            game.unmakeMove();
+            
+            if (isStopped())
+                return alpha;
+            
+            // see if it is better than previous best move
+            if (moveValue > alpha) {
+                alpha = moveValue;
+                bestMove = m;
+            }            
+            // if the alpha value (value of the best move found for the ai by
+            // this method) is greater than the beta value (the best move for 
+            // the opponent so far found by the min method that called this
+            // method) then we know that the min method will not choose this
+            // path and we can stop the search
+            if (alpha >= beta) {
+                recordCutoff(game, m, depth, ply);
+                stats.cutoffs++;
+                if (i == 0)
+                    stats.firstMoveCutoffs++;
+                break;
+            }
+        }
+
+        storeResult(game, depth, ply, alpha, alphaOriginal, beta, bestMove);
+        return alpha;
+    }
+    
+    /**
+     * Returns the value of the best move for the player for the given board
+     * @param game game state after the last ai move
+     * @param depth current depth of the analysis
+     * @param alpha best max move
+     * @param beta best min move
+     * @return value of the move
+     */
+    private int min(Board game, int depth, int alpha, int beta) {
+        // the value is discarded if the search is stopped
+        if (outOfBudget())
+            return beta;
+        
+        // when the depth limit is reached, resolve captures before 
+        // evaluating the board
+        if (depth == 0)
+            return quiesceMin(game, alpha, beta, MAX_QUIESCENCE_DEPTH, rootDepth);
+
+        int ply = rootDepth - depth;
+        // use the stored result if the position has been searched before
+        long entry = table.probe(game.getHashKey());
+        stats.tableProbes++;
+        if (isUsable(entry, depth, alpha, beta, ply)) {
+            stats.tableHits++;
+            return fromTable(TranspositionTable.score(entry), ply);
+        }
+
+        // positions with few pieces have an exact value in the tablebases,
+        // which is stored so the next visit finds it in the table
+        int result = ai.probeTablebase(game, tablebasePieces, tablebaseSquares);
+        if (result != Tablebase.UNKNOWN) {
+            stats.tablebaseHits++;
+            int value = ai.valueOfTablebase(game, result, ply);
+            storeResult(game, depth, ply, value, Integer.MIN_VALUE, 
+                    Integer.MAX_VALUE, 0);
+            return value;
+        }
+
+        int[] possibleMoves = movesAt(ply);
+        int count = game.generateMoves(possibleMoves, 0);
+
+        // if no moves can be made, game has ended
+        if (count == 0)
+            return ai.valueOfGameOver(game);
+        
+        orderMoves(game, possibleMoves, count, TranspositionTable.move(entry), ply);
+
+        int betaOriginal = beta;
+        int bestMove = 0;
+        
+        // get the best move for the player (min) from the available moves
+        for(int i = 0; i < count; i++) {
+            int m = possibleMoves[i];
+            game.makeMove(m);
+            int moveValue = max(game, depth - 1, alpha, beta);
+            game.unmakeMove();
+            
+            if (isStopped())
+                return beta;
+            
+            if (moveValue < beta) {
+                beta = moveValue;
+                bestMove = m;
+            }             
+            // if the alpha value (best move found for the ai so far by the
+            // max method that called this method) is greater than the beta 
+            // value (best move found for the opponent by this method) then
+            // we know that the max method will not choose this path and we
+            // can stop the search.
+            if (alpha >= beta) {
+                recordCutoff(game, m, depth, ply);
+                stats.cutoffs++;
+                if (i == 0)
+                    stats.firstMoveCutoffs++;
+                break;
+            }
+        }       
+        
+        storeResult(game, depth, ply, beta, alpha, betaOriginal, bestMove);
+        return beta;
+    }
+    
+    /**
+     * Searches only captures and promotions for the ai, so that the board
+     * is not evaluated in the middle of an exchange. The ai may also
+     * "stand pat" and take the value of the board as it is.
+     * @param game game state after the last player move
+     * @param alpha best max move
+     * @param beta best min move
+     * @param depth number of captures that may still be searched
+     * @param ply distance from the root of the search
+     * @return value of the board
+     */
+    private int quiesceMax(Board game, int alpha, int beta, int depth, int ply) {
+        if (outOfBudget())
+            return alpha;
+        stats.quiescenceNodes++;
+        
+        stats.evaluations++;
+        int standPat = ai.valueOfBoard(game);
+        if (standPat >= beta)
+            return standPat;
+        if (standPat > alpha)
+            alpha = standPat;
+        if (depth == 0)
+            return alpha;
+        
+        int[] captures = movesAt(ply);
+        int count = game.generateCaptures(captures, 0);
+        orderMoves(game, captures, count, 0, ply);
+        for(int i = 0; i < count; i++) {
+            int m = captures[i];
+            // skip captures that cannot raise alpha even with a margin
+            if (!PackedMove.isPromotion(m) && standPat + 
+                    ai.valueOfPiece(PackedMove.captured(m)) + DELTA_MARGIN <= alpha)
+                continue;
+            
+            game.makeMove(m);
+            int moveValue = quiesceMin(game, alpha, beta, depth - 1, ply + 1);
+            game.unmakeMove();
+            
+            if (isStopped())
+                return alpha;
+            if (moveValue > alpha)
+                alpha = moveValue;
+            if (alpha >= beta)
+                break;
+        }
+        return alpha;
+    }
+    
+    /**
+     * Searches only captures and promotions for the player, so that the
+     * board is not evaluated in the middle of an exchange. The player may
+     * also "stand pat" and take the value of the board as it is.
+     * @param game game state after the last ai move
+     * @param alpha best max move
+     * @param beta best min move
+     * @param depth number of captures that may still be searched
+     * @param ply distance from the root of the search
+     * @return value of the board
+     */
+    private int quiesceMin(Board game, int alpha, int beta, int depth, int ply) {
+        if (outOfBudget())
+            return beta;
+        stats.quiescenceNodes++;
+        
+        stats.evaluations++;
+        int standPat = ai.valueOfBoard(game);
+        if (standPat <= alpha)
+            return standPat;
+        if (standPat < beta)
+            beta = standPat;
+        if (depth == 0)
+            return beta;
+        
+        int[] captures = movesAt(ply);
+        int count = game.generateCaptures(captures, 0);
+        orderMoves(game, captures, count, 0, ply);
+        for(int i = 0; i < count; i++) {
+            int m = captures[i];
+            // skip captures that cannot lower beta even with a margin
+            if (!PackedMove.isPromotion(m) && standPat - 
+                    ai.valueOfPiece(PackedMove.captured(m)) - DELTA_MARGIN >= beta)
+                continue;
+            
+            game.makeMove(m);
+            int moveValue = quiesceMax(game, alpha, beta, depth - 1, ply + 1);
+            game.unmakeMove();
+            
+            if (isStopped())
+                return beta;
+            if (moveValue < beta)
+                beta = moveValue;
+            if (alpha >= beta)
+                break;
+        }
+        return beta;
+    }
+    
+    /**
+     * Returns the move buffer of a ply
+     * @param ply distance from the root of the search
+     * @return buffer with room for all the moves of a position
+     */
+    private int[] movesAt(int ply) {
+        if (moveStack[ply] == null) {
+            moveStack[ply] = new int[Board.MAX_MOVES];
+            scoreStack[ply] = new int[Board.MAX_MOVES];
+        }
+        return moveStack[ply];
+    }
+    
+    /**
+     * Sorts moves so that the ones most likely to cause a cutoff are 
+     * searched first: the move stored in the transposition table, captures
+     * and promotions by most valuable victim and least valuable attacker, 
+     * killer moves and then the rest by their history scores
+     * @param game board the moves are made on
+     * @param moves moves to sort, the move buffer of the ply
+     * @param count number of moves
+     * @param hashMove key of the stored best move, 0 if none
+     * @param ply distance from the root of the search
+     */
+    private void orderMoves(Board game, int[] moves, int count, int hashMove, int ply) {
+        int[] colorHistory = history[game.getTurn().ordinal()];
+        int[] killer = ply < MAX_PLY ? killers[ply] : NO_KILLERS;
+        int[] scores = scoreStack[ply];
+        
+        for(int i = 0; i < count; i++) {
+            int m = moves[i];
+            int key = PackedMove.key(m);
+            
+            if (key == hashMove)
+                scores[i] = HASH_MOVE_SCORE;
+            else if (PackedMove.isCapture(m) || PackedMove.isPromotion(m)) {
+                int victim = Math.max(PackedMove.captured(m), 0);
+                scores[i] = CAPTURE_SCORE + (victim + PackedMove.promotion(m)) * 10 
+                        - PackedMove.piece(m);
+            } else if (key == killer[0])
+                scores[i] = KILLER_SCORE + 1;
+            else if (key == killer[1])
+                scores[i] = KILLER_SCORE;
+            else
+                scores[i] = colorHistory[historyIndex(m)];
+        }
+        
+        // insertion sort, highest score first. Move lists are short.
+        for(int i = 1; i < count; i++) {
+            int score = scores[i];
+            int m = moves[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                scores[j + 1] = scores[j];
+                moves[j + 1] = moves[j];
+                j--;
+            }
+            scores[j + 1] = score;
+            moves[j + 1] = m;
+        }
+    }
+    
+    /**
+     * Remembers a quiet move that caused a cutoff as a killer move for 
+     * the ply and raises its history score
+     * @param game board the move was made on
+     * @param m move that caused the cutoff
+     * @param depth remaining depth of the search
+     * @param ply distance from the root of the search
+     */
+    private void recordCutoff(Board game, int m, int depth, int ply) {
+        if (PackedMove.isCapture(m))
+            return;
+        
+        int key = PackedMove.key(m);
+        if (ply < MAX_PLY && killers[ply][0] != key) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = key;
+        }
+        
+        int[] colorHistory = history[game.getTurn().ordinal()];
+        int index = historyIndex(m);
+        colorHistory[index] += depth * depth;
+        if (colorHistory[index] >= HISTORY_LIMIT)
+            ageHistory();
+    }
+    
+    /**
+     * Returns the index of a move in the history scores
+     * @param m encoded move
+     * @return index by the from and to squares of the move
+     */
+    private static int historyIndex(int m) {
+        return PackedMove.from(m) * 64 + PackedMove.to(m);
+    }
+    
+    /**
+     * Checks if a transposition table entry can be used in place of 
+     * searching the position
+     * @param entry entry found in the table, 0 if none
+     * @param depth depth the position would be searched to
+     * @param alpha best max move
+     * @param beta best min move
+     * @param ply distance of the position from the root of the search
+     * @return true if the stored score can be returned
+     */
+    private boolean isUsable(long entry, int depth, int alpha, int beta, 
+            int ply) {
+        if (entry == 0 || TranspositionTable.depth(entry) < depth)
+            return false;
+        
+        int score = fromTable(TranspositionTable.score(entry), ply);
+        switch (TranspositionTable.bound(entry)) {
+            case TranspositionTable.EXACT:
+                return true;
+            case TranspositionTable.LOWER_BOUND:
+                return score >= beta;
+            default:
+                return score <= alpha;
+        }
+    }
+    
+    /**
+     * Stores the result of a search in the transposition table
+     * @param game board that was searched
+     * @param depth depth of the search
+     * @param ply distance of the board from the root of the search
+     * @param value value found for the board
+     * @param alpha best max move when the search started
+     * @param beta best min move when the search started
+     * @param bestMove best move found, 0 if none
+     */
+    private void storeResult(Board game, int depth, int ply, int value, 
+            int alpha, int beta, int bestMove) {
+        int bound;
+        // a value outside the window only tells which side of it the
+        // real value is on
+        if (value <= alpha)
+            bound = TranspositionTable.UPPER_BOUND;
+        else if (value >= beta)
+            bound = TranspositionTable.LOWER_BOUND;
+        else
+            bound = TranspositionTable.EXACT;
+        
+        table.store(game.getHashKey(), depth, bound, toTable(value, ply), 
+                PackedMove.key(bestMove));
+    }
+    
+    /**
+     * Converts a value to the form kept in the transposition table. A
+     *  tablebase win counts the plies to mate from the root of the search,
+     *  which depends on where the position was reached. It is stored
+     *  counted from the position itself, so it is still right when the
+     *  position is reached at another ply or in a later search.
+     * @param value value of a position
+     * @param ply distance of the position from the root of the search
+     * @return value to store
+     */
+    private static int toTable(int value, int ply) {
+        if (isTablebaseWin(value))
+            return value > 0 ? value + ply : value - ply;
+        return value;
+    }
+    
+    /**
+     * Converts a value from the transposition table back to one counted
+     *  from the root of the search. The reverse of toTable().
+     * @param value stored value
+     * @param ply distance of the position from the root of the search
+     * @return value of the position
+     */
+    private static int fromTable(int value, int ply) {
+        if (isTablebaseWin(value))
+            return value > 0 ? value - ply : value + ply;
+        return value;
+    }
+    
+    /**
+     * Checks if a value is a tablebase win or loss. The values of a game
+     *  that is over do not depend on the ply and are not counted as such.
+     * @param value value of a position
+     * @return true if the value comes from Ai.valueOfTablebase()
+     */
+    private static boolean isTablebaseWin(int value) {
+        return value != Integer.MIN_VALUE && value != Integer.MAX_VALUE &&
+                Math.abs(value) > Ai.TABLEBASE_WIN - TABLEBASE_RANGE;
+    }
+    
+    /**
+     * Halves all history scores
+     */
+    private void ageHistory() {
+        for(int[] colorHistory : history)
+            for(int i = 0; i < colorHistory.length; i++)
+                colorHistory[i] /= 2;
+    }
+}
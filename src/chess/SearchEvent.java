@@ -0,0 +1,72 @@
+package chess;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for the search of the ai for one move,
+ * holding the totals of its SearchStats. The duration of the event is the
+ * time of the whole search.
+ * @author Paul
+ */
+@Name("chess.Search")
+@Label("Search")
+@Category({"Chess", "Search"})
+@Description("The ai searched for a move")
+final class SearchEvent extends Event {
+    
+    @Label("Depth")
+    @Description("Iterations completed")
+    int depth;
+    
+    @Label("Threads")
+    int threads;
+    
+    @Label("Nodes")
+    long nodes;
+    
+    @Label("Quiescence Nodes")
+    long quiescenceNodes;
+    
+    @Label("Evaluations")
+    long evaluations;
+    
+    @Label("Cutoffs")
+    long cutoffs;
+    
+    @Label("First Move Cutoffs")
+    long firstMoveCutoffs;
+    
+    @Label("Table Probes")
+    long tableProbes;
+    
+    @Label("Table Hits")
+    long tableHits;
+    
+    @Label("Tablebase Hits")
+    long tablebaseHits;
+    
+    @Label("Branching Factor")
+    @Description("Nodes of the last iteration over those of the one before")
+    double branchingFactor;
+    
+    /**
+     * Copies the totals of a search into the event
+     * @param stats statistics of the search
+     */
+    void set(SearchStats stats) {
+        depth = stats.getIterations();
+        nodes = stats.nodes;
+        quiescenceNodes = stats.quiescenceNodes;
+        evaluations = stats.evaluations;
+        cutoffs = stats.cutoffs;
+        firstMoveCutoffs = stats.firstMoveCutoffs;
+        tableProbes = stats.tableProbes;
+        tableHits = stats.tableHits;
+        tablebaseHits = stats.tablebaseHits;
+        branchingFactor = stats.getBranchingFactor();
+    }
+}
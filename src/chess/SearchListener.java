@@ -0,0 +1,18 @@
+package chess;
+
+/**
+ * Receives the progress of an Ai's search for a move. Called on the thread
+ * that called Ai.getMove(), so a user interface has to pass the progress
+ * on to its own thread.
+ * @author Paul
+ */
+public interface SearchListener {
+    
+    /**
+     * Called when the search has finished searching all the moves to
+     * one more ply
+     * @param stats statistics of the search so far, see 
+     *  SearchStats.getIterations() for the depth reached
+     */
+    void iterationCompleted(SearchStats stats);
+}
@@ -0,0 +1,222 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * Statistics of one search of an Ai for a move: how many positions were
+ * searched, how well the moves were ordered and where the time went.
+ * Every thread of the search counts into statistics of its own, which are
+ * added to the ai's when the thread is done, so counting needs no
+ * synchronization.
+ * @author Paul
+ */
+public class SearchStats {
+
+    // positions searched, including the ones searched for captures only
+    long nodes = 0;
+    // positions searched for captures only at the leaves of the search
+    long quiescenceNodes = 0;
+    // positions where a move beat the search window and the rest of the
+    // moves were skipped, and how many of those it was the first move
+    long cutoffs = 0;
+    long firstMoveCutoffs = 0;
+    // transposition table lookups, and how many of those gave a score
+    // that was used in place of a search
+    long tableProbes = 0;
+    long tableHits = 0;
+    // boards evaluated
+    long evaluations = 0;
+    // positions whose value was found in the endgame tablebases
+    long tablebaseHits = 0;
+    
+    // time in nanoseconds and nodes of each completed iteration
+    private long[] iterationTimes = new long[0];
+    private long[] iterationNodes = new long[0];
+    // time of the whole search in nanoseconds
+    private long time = 0;
+    
+    /**
+     * Returns the number of positions searched
+     * @return number of nodes, including quiescence nodes
+     */
+    public long getNodes() {
+        return nodes;
+    }
+    
+    /**
+     * Returns the number of positions searched for captures only
+     * @return number of quiescence nodes
+     */
+    public long getQuiescenceNodes() {
+        return quiescenceNodes;
+    }
+    
+    /**
+     * Returns the number of positions where a move beat the search window,
+     *  so the rest of the moves did not need to be searched
+     * @return number of beta cutoffs
+     */
+    public long getCutoffs() {
+        return cutoffs;
+    }
+    
+    /**
+     * Returns the share of cutoffs made by the first move searched. The
+     *  better the moves are ordered, the closer it is to 1.
+     * @return first move cutoff rate, 0 if there were no cutoffs
+     */
+    public double getFirstMoveCutoffRate() {
+        return cutoffs == 0 ? 0 : (double)firstMoveCutoffs / cutoffs;
+    }
+    
+    /**
+     * Returns the number of transposition table lookups
+     * @return number of probes
+     */
+    public long getTableProbes() {
+        return tableProbes;
+    }
+    
+    /**
+     * Returns the number of transposition table lookups that gave a score
+     *  that was used in place of a search
+     * @return number of hits
+     */
+    public long getTableHits() {
+        return tableHits;
+    }
+    
+    /**
+     * Returns the number of boards evaluated
+     * @return number of evaluations
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+    
+    /**
+     * Returns the number of positions whose value was found in the endgame
+     *  tablebases in place of a search
+     * @return number of tablebase hits
+     */
+    public long getTablebaseHits() {
+        return tablebaseHits;
+    }
+    
+    /**
+     * Returns the number of iterations completed. The search deepens one
+     *  ply at a time, so this is the depth reached.
+     * @return number of iterations
+     */
+    public int getIterations() {
+        return iterationTimes.length;
+    }
+    
+    /**
+     * Returns the time taken by an iteration
+     * @param iteration iteration, 1 for the first
+     * @return time in nanoseconds
+     */
+    public long getIterationTime(int iteration) {
+        return iterationTimes[iteration - 1];
+    }
+    
+    /**
+     * Returns the number of positions searched in an iteration, by all
+     *  the threads
+     * @param iteration iteration, 1 for the first
+     * @return number of nodes
+     */
+    public long getIterationNodes(int iteration) {
+        return iterationNodes[iteration - 1];
+    }
+    
+    /**
+     * Returns the effective branching factor: how many times more
+     *  positions the last iteration searched than the one before it
+     * @return branching factor, 0 if fewer than two iterations completed
+     */
+    public double getBranchingFactor() {
+        int n = iterationNodes.length;
+        if (n < 2 || iterationNodes[n - 2] == 0)
+            return 0;
+        return (double)iterationNodes[n - 1] / iterationNodes[n - 2];
+    }
+    
+    /**
+     * Returns the time taken by the whole search
+     * @return time in nanoseconds
+     */
+    public long getTime() {
+        return time;
+    }
+    
+    /**
+     * Returns the number of positions searched per second
+     * @return nodes per second, 0 if no time was measured
+     */
+    public double getNodesPerSecond() {
+        return time == 0 ? 0 : nodes * 1e9 / time;
+    }
+    
+    /**
+     * Adds the counts of another thread's search to these statistics and
+     *  clears them from the other
+     * @param other statistics to move over
+     */
+    void takeCounts(SearchStats other) {
+        nodes += other.nodes;
+        quiescenceNodes += other.quiescenceNodes;
+        cutoffs += other.cutoffs;
+        firstMoveCutoffs += other.firstMoveCutoffs;
+        tableProbes += other.tableProbes;
+        tableHits += other.tableHits;
+        evaluations += other.evaluations;
+        tablebaseHits += other.tablebaseHits;
+        other.nodes = 0;
+        other.quiescenceNodes = 0;
+        other.cutoffs = 0;
+        other.firstMoveCutoffs = 0;
+        other.tableProbes = 0;
+        other.tableHits = 0;
+        other.evaluations = 0;
+        other.tablebaseHits = 0;
+    }
+    
+    /**
+     * Records a completed iteration
+     * @param time time taken in nanoseconds
+     * @param nodes number of positions searched
+     */
+    void addIteration(long time, long nodes) {
+        int n = iterationTimes.length;
+        iterationTimes = Arrays.copyOf(iterationTimes, n + 1);
+        iterationNodes = Arrays.copyOf(iterationNodes, n + 1);
+        iterationTimes[n] = time;
+        iterationNodes[n] = nodes;
+    }
+    
+    /**
+     * Sets the time taken by the whole search
+     * @param time time in nanoseconds
+     */
+    void setTime(long time) {
+        this.time = time;
+    }
+    
+    /**
+     * Returns the statistics on one line
+     * @return summary of the search
+     */
+    @Override
+    public String toString() {
+        return String.format("depth %d, %d nodes (%d quiescence), %.0f nps, "
+                + "%d evaluations, cutoffs %d (%.1f%% first move), "
+                + "table hits %d/%d, tablebase hits %d, branching factor %.2f, "
+                + "%.1f ms",
+                getIterations(), nodes, quiescenceNodes, getNodesPerSecond(),
+                evaluations, cutoffs, getFirstMoveCutoffRate() * 100,
+                tableHits, tableProbes, tablebaseHits, getBranchingFactor(),
+                time / 1e6);
+    }
+}
@@ -0,0 +1,151 @@
+package chess;
+
+import java.awt.Point;
+
+/**
+ * Square indices of the board and the tables used to move between them.
+ *  Squares run from 0 (x = 0, y = 0) to 63 (x = 7, y = 7), i.e.
+ *  square = y * 8 + x. Steps are taken on a 10 x 12 mailbox, where the
+ *  board is surrounded by off-board sentinels, so a step off the edge of
+ *  the board gives OFF_BOARD without any bounds checks.
+ * @author Paul
+ */
+final class Squares {
+
+    // result of a step off the board
+    static final int OFF_BOARD = -1;
+    
+    // offsets of the knight leaps on the mailbox
+    static final int[] KNIGHT_OFFSETS = {-19, -8, 12, 21, 19, 8, -12, -21};
+    // offsets of the rays on the mailbox, the four straight directions
+    // first and then the four diagonals
+    static final int[] RAY_OFFSETS = {-10, 1, 10, -1, -9, 11, 9, -11};
+    
+    // the square of each mailbox cell, OFF_BOARD around the edges
+    private static final int[] MAILBOX = new int[120];
+    // the mailbox cell of each square
+    private static final int[] MAILBOX64 = new int[64];
+    
+    // ray index from one square through another, by from * 64 + to
+    private static final byte[] DIRECTION = new byte[64 * 64];
+    // squares between two squares on a common line, by from * 64 + to
+    private static final long[] BETWEEN = new long[64 * 64];
+    
+    static {
+        for(int i = 0; i < MAILBOX.length; i++)
+            MAILBOX[i] = OFF_BOARD;
+        for(int sq = 0; sq < 64; sq++) {
+            MAILBOX64[sq] = (y(sq) + 2) * 10 + x(sq) + 1;
+            MAILBOX[MAILBOX64[sq]] = sq;
+        }
+    
+        for(int i = 0; i < DIRECTION.length; i++)
+            DIRECTION[i] = -1;
+        for(int from = 0; from < 64; from++)
+            for(int ray = 0; ray < 8; ray++) {
+                long between = 0L;
+                for(int to = step(from, RAY_OFFSETS[ray]); to != OFF_BOARD;
+                        to = step(to, RAY_OFFSETS[ray])) {
+                    DIRECTION[from * 64 + to] = (byte)ray;
+                    BETWEEN[from * 64 + to] = between;
+                    between |= 1L << to;
+                }
+            }
+    }
+    
+    private Squares() {
+    }
+    
+    /**
+     * Returns the square reached by a step from a square
+     * @param sq square to step from
+     * @param offset offset of the step on the mailbox, see offset()
+     * @return square stepped to, OFF_BOARD if off the board
+     */
+    static int step(int sq, int offset) {
+        return MAILBOX[MAILBOX64[sq] + offset];
+    }
+    
+    /**
+     * Returns the mailbox offset of a step
+     * @param dx steps along x
+     * @param dy steps along y
+     * @return offset to use with step()
+     */
+    static int offset(int dx, int dy) {
+        return dy * 10 + dx;
+    }
+    
+    /**
+     * Returns the direction of the ray from one square through another
+     * @param from square the ray starts from
+     * @param to square on the ray
+     * @return index of the ray in RAY_OFFSETS, -1 if the squares are not
+     *  on a common line
+     */
+    static int direction(int from, int to) {
+        return DIRECTION[from * 64 + to];
+    }
+    
+    /**
+     * Returns the squares between two squares on a common line
+     * @param from first square, not included
+     * @param to second square, not included
+     * @return squares between the two, 0 if they are not on a line
+     */
+    static long between(int from, int to) {
+        return BETWEEN[from * 64 + to];
+    }
+    
+    /**
+     * Returns the column of a square
+     * @param sq square index
+     * @return x coordinate, 0 to 7
+     */
+    static int x(int sq) {
+        return sq & 7;
+    }
+    
+    /**
+     * Returns the row of a square
+     * @param sq square index
+     * @return y coordinate, 0 to 7
+     */
+    static int y(int sq) {
+        return sq >> 3;
+    }
+    
+    /**
+     * Returns the location of a square, for drawing the board
+     * @param sq square index
+     * @return a new point at the square
+     */
+    static Point toPoint(int sq) {
+        return new Point(x(sq), y(sq));
+    }
+    
+    /**
+     * Returns the name of a square in algebraic notation, with files a to h
+     *  from x = 0 and ranks 8 to 1 from y = 0
+     * @param sq square index
+     * @return name of the square, such as "e4"
+     */
+    static String name(int sq) {
+        return "" + (char)('a' + x(sq)) + (char)('8' - y(sq));
+    }
+    
+    /**
+     * Returns the square of a name in algebraic notation
+     * @param name name of the square, such as "e4"
+     * @return square index, OFF_BOARD if the name is not a square
+     */
+    static int parse(String name) {
+        if (name.length() != 2)
+            return OFF_BOARD;
+        int x = name.charAt(0) - 'a';
+        int y = '8' - name.charAt(1);
+        if (x < 0 || x > 7 || y < 0 || y > 7)
+            return OFF_BOARD;
+        return y * 8 + x;
+    }
+}
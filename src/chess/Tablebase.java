@@ -0,0 +1,464 @@
+package chess;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Endgame tablebases: the result of every position with up to MAX_PIECES
+ * pieces, kings included, and the number of plies to mate. Each table holds
+ * the positions of one set of material, such as KRK or KBNK, with either
+ * side to move, and is stored in a file named after its material in the
+ * tablebase folder. The tables are made offline by the TablebaseGenerator
+ * tool in bench.
+ * A table stores the result of each position in as few bits as its longest
+ * mate needs: 0 for a draw, otherwise the number of plies to mate plus one,
+ * which is even when the side to move wins and odd when it loses. The file
+ * is mapped into memory read-only, so a probe reads a few bytes, and all
+ * the programs using the tables share their pages in the operating system's
+ * file cache.
+ * Positions are stored with the stronger side as white and mirrored so the
+ * white king stands in the a1-d1-d4 triangle, or on files a-d when there
+ * are pawns. Castling and en passant captures are not part of the tables,
+ * so positions where they are possible are not probed.
+ * @author Paul
+ */
+public final class Tablebase {
+
+    // most pieces in a position of the tables, kings included
+    public static final int MAX_PIECES = 4;
+    // folder of the tables used by the game, relative to the folder it is
+    // run from
+    public static final String DEFAULT_DIRECTORY = "TABLES";
+    // result of a probe when the position is not in the tables
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+    
+    // name of a table file after its material
+    static final String EXTENSION = ".tb";
+    // a table file starts with MAGIC and the bits per position, the
+    // results follow from HEADER on
+    static final int MAGIC = 0x54424C31;
+    static final int HEADER = 8;
+    
+    // number of piece codes, color.ordinal() * 6 + type, and of material
+    // indexes made of up to MAX_PIECES of them
+    private static final int PIECE_CODES = 12;
+    private static final int MATERIALS;
+    
+    // squares of the white king, by their number in the index, in tables
+    // without and with pawns
+    private static final int[] KING_SQUARES = new int[10];
+    private static final int[] PAWN_KING_SQUARES = new int[32];
+    // number in the index of each square of the white king
+    private static final int[] KING_INDEX = new int[64];
+    private static final int[] PAWN_KING_INDEX = new int[64];
+    
+    // stands for a table without a file in the cache of tables
+    private static final Table MISSING = new Table(null, 1, false);
+    
+    static {
+        int materials = 1;
+        for(int i = 0; i < MAX_PIECES; i++)
+            materials *= PIECE_CODES;
+        MATERIALS = materials;
+    
+        int kings = 0;
+        int pawnKings = 0;
+        for(int sq = 0; sq < 64; sq++) {
+            if (symmetry(sq, false) == 0) {
+                KING_INDEX[sq] = kings;
+                KING_SQUARES[kings++] = sq;
+            }
+            if (symmetry(sq, true) == 0) {
+                PAWN_KING_INDEX[sq] = pawnKings;
+                PAWN_KING_SQUARES[pawnKings++] = sq;
+            }
+        }
+    }
+    
+    private final File directory;
+    // tables opened so far by the material index of their pieces, see
+    // table()
+    private final AtomicReferenceArray<Table> tables =
+            new AtomicReferenceArray<Table>(MATERIALS);
+    
+    /**
+     * Creates tablebases from the tables in a folder. The tables are
+     *  opened when first probed, positions of missing tables are unknown.
+     * @param directory folder of the table files
+     */
+    public Tablebase(File directory) {
+        this.directory = directory;
+    }
+    
+    /**
+     * Looks up the result of a position
+     * @param game the position
+     * @return the number of plies to mate plus one, positive if the side
+     *  to move wins and negative if it loses, 0 for a draw, and UNKNOWN
+     *  if the position is not in the tables
+     */
+    public int probe(Board game) {
+        return probe(game, new int[MAX_PIECES], new int[MAX_PIECES]);
+    }
+    
+    /**
+     * Looks up the result of a position, listing its pieces in buffers of
+     *  the caller so a search does not allocate for every probe
+     * @param game the position
+     * @param pieces buffer for the pieces, MAX_PIECES long
+     * @param squares buffer for the squares of the pieces, MAX_PIECES long
+     * @return result as by probe(Board)
+     */
+    public int probe(Board game, int[] pieces, int[] squares) {
+        if (Long.bitCount(game.getOccupied()) > MAX_PIECES || 
+                game.castlingRights() != 0)
+            return UNKNOWN;
+    
+        // only the pawn moved last may be captured en passant
+        Piece last = game.getLastMovedPiece();
+        if (last instanceof Pawn && ((Pawn)last).enPassantOk &&
+                canBeCapturedEnPassant(game, last))
+            return UNKNOWN;
+    
+        boolean whiteToMove = game.getTurn() == Piece.Color.White;
+        int count = listPieces(game, Piece.Color.White, pieces, squares);
+        if (count == 2)
+            return 0;
+        if (blackIsStronger(pieces, count)) {
+            listPieces(game, Piece.Color.Black, pieces, squares);
+            whiteToMove = !whiteToMove;
+        }
+        return lookUp(pieces, squares, count, whiteToMove);
+    }
+    
+    /**
+     * Lists the pieces of a position from its bitboards, in the order of
+     *  the tables
+     * @param game the position
+     * @param white color whose pieces are listed as white, the board is
+     *  mirrored top to bottom when it is black
+     * @param pieces receives the pieces, as color.ordinal() * 6 + type
+     * @param squares receives the squares of the pieces
+     * @return number of pieces
+     */
+    private static int listPieces(Board game, Piece.Color white, 
+            int[] pieces, int[] squares) {
+        int flip = white == Piece.Color.White ? 0 : 56;
+        int count = 0;
+        for(int side = 0; side < 2; side++) {
+            Piece.Color color = side == 0 ? white : 
+                    Piece.Color.values()[1 - white.ordinal()];
+            for(int type = PackedMove.KING; type >= PackedMove.PAWN; type--) {
+                long bits = game.getBitboard(color, type);
+                while (bits != 0) {
+                    pieces[count] = side * 6 + type;
+                    squares[count++] = Long.numberOfTrailingZeros(bits) ^ flip;
+                    bits &= bits - 1;
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Looks up the result of a position given by its pieces
+     * @param pieces the pieces, as color.ordinal() * 6 + type, in any
+     *  order. Sorted in place along with the squares.
+     * @param squares the squares of the pieces
+     * @param count number of pieces
+     * @param whiteToMove true if white is to move
+     * @return result as by probe(Board)
+     */
+    int probe(int[] pieces, int[] squares, int count, boolean whiteToMove) {
+        // only the kings are left
+        if (count == 2)
+            return 0;
+    
+        sort(pieces, squares, count);
+        if (blackIsStronger(pieces, count)) {
+            for(int i = 0; i < count; i++) {
+                pieces[i] = (pieces[i] + 6) % 12;
+                squares[i] ^= 56;
+            }
+            whiteToMove = !whiteToMove;
+            sort(pieces, squares, count);
+        }
+        return lookUp(pieces, squares, count, whiteToMove);
+    }
+    
+    /**
+     * Reads the result of a position from its table
+     * @param pieces pieces in the order of the tables, white the stronger
+     * @param squares the squares of the pieces
+     * @param count number of pieces
+     * @param whiteToMove true if white is to move
+     * @return result as by probe(Board)
+     */
+    private int lookUp(int[] pieces, int[] squares, int count, 
+            boolean whiteToMove) {
+        Table table = table(pieces, count);
+        if (table == MISSING)
+            return UNKNOWN;
+        int code = table.read(index(squares, count, whiteToMove, table.pawns));
+        return (code & 1) == 0 ? code : -code;
+    }
+    
+    /**
+     * Returns the table of a set of material, opening it if this is the
+     *  first time it is needed. Tables are found by a material index with
+     *  one base PIECE_CODES digit for each piece, which is unique because
+     *  the white king always comes first.
+     * @param pieces pieces in the order of the tables
+     * @param count number of pieces
+     * @return the table, MISSING if it has no file
+     */
+    private Table table(int[] pieces, int count) {
+        int material = 0;
+        for(int i = 0; i < count; i++)
+            material = material * PIECE_CODES + pieces[i];
+        Table table = tables.get(material);
+        if (table == null) {
+            String name = name(pieces, count);
+            table = Table.open(new File(directory, name + EXTENSION),
+                    name.indexOf('P') >= 0);
+            if (!tables.compareAndSet(material, null, table))
+                table = tables.get(material);
+        }
+        return table;
+    }
+    
+    /**
+     * Checks if a pawn that has just moved two squares can be captured
+     *  en passant
+     * @param game the position
+     * @param pawn the pawn
+     * @return true if an enemy pawn stands next to it
+     */
+    private static boolean canBeCapturedEnPassant(Board game, Piece pawn) {
+        Piece.Color enemy = pawn.getColor() == Piece.Color.White ?
+                Piece.Color.Black : Piece.Color.White;
+        long pawns = game.getBitboard(enemy, PackedMove.PAWN);
+        int sq = pawn.getSquare();
+        return (Squares.x(sq) > 0 && (pawns & (1L << (sq - 1))) != 0) ||
+                (Squares.x(sq) < 7 && (pawns & (1L << (sq + 1))) != 0);
+    }
+    
+    /**
+     * Sorts pieces into the order of the tables: white before black, and
+     *  the pieces of each color by type from the king down
+     * @param pieces the pieces, as color.ordinal() * 6 + type
+     * @param squares the squares of the pieces, sorted with them
+     * @param count number of pieces
+     */
+    static void sort(int[] pieces, int[] squares, int count) {
+        for(int i = 1; i < count; i++) {
+            int pc = pieces[i];
+            int sq = squares[i];
+            int j = i;
+            for(; j > 0 && order(pieces[j - 1]) > order(pc); j--) {
+                pieces[j] = pieces[j - 1];
+                squares[j] = squares[j - 1];
+            }
+            pieces[j] = pc;
+            squares[j] = sq;
+        }
+    }
+    
+    /**
+     * Returns the place of a piece in the order of the tables
+     * @param piece color.ordinal() * 6 + type
+     * @return smaller for the pieces that come first
+     */
+    private static int order(int piece) {
+        return piece / 6 * 6 + 5 - piece % 6;
+    }
+    
+    /**
+     * Checks if black has the stronger pieces: more pieces, or the same
+     *  number and a stronger piece where they first differ
+     * @param pieces pieces in the order of the tables
+     * @param count number of pieces
+     * @return true if the colors are swapped in the tables
+     */
+    static boolean blackIsStronger(int[] pieces, int count) {
+        int black = 1;
+        while (pieces[black] < 6)
+            black++;
+        if (count - black != black)
+            return count - black > black;
+        for(int i = 1; i < black; i++)
+            if (pieces[black + i] % 6 != pieces[i] % 6)
+                return pieces[black + i] % 6 > pieces[i] % 6;
+        return false;
+    }
+    
+    /**
+     * Returns the name of a table, such as "KBNK"
+     * @param pieces pieces in the order of the tables
+     * @param count number of pieces
+     * @return one letter for each piece
+     */
+    static String name(int[] pieces, int count) {
+        StringBuilder name = new StringBuilder();
+        for(int i = 0; i < count; i++)
+            name.append("PNBRQK".charAt(pieces[i] % 6));
+        return name.toString();
+    }
+    
+    /**
+     * Returns the mirroring of the board that brings the white king to the
+     *  squares of the index
+     * @param king square of the white king
+     * @param pawns true if there are pawns, which only allow mirroring
+     *  left to right
+     * @return 1 to mirror the files, 2 to mirror the ranks and 4 to mirror
+     *  across the a1-h8 diagonal, combined
+     */
+    static int symmetry(int king, boolean pawns) {
+        int x = Squares.x(king);
+        int y = Squares.y(king);
+        int symmetry = 0;
+        if (x > 3) {
+            symmetry |= 1;
+            x = 7 - x;
+        }
+        if (pawns)
+            return symmetry;
+        if (y < 4) {
+            symmetry |= 2;
+            y = 7 - y;
+        }
+        if (x + y < 7)
+            symmetry |= 4;
+        return symmetry;
+    }
+    
+    /**
+     * Mirrors a square
+     * @param sq square index
+     * @param symmetry mirroring as returned by symmetry()
+     * @return the mirrored square
+     */
+    static int transform(int sq, int symmetry) {
+        int x = Squares.x(sq);
+        int y = Squares.y(sq);
+        if ((symmetry & 1) != 0)
+            x = 7 - x;
+        if ((symmetry & 2) != 0)
+            y = 7 - y;
+        if ((symmetry & 4) != 0) {
+            int t = x;
+            x = 7 - y;
+            y = 7 - t;
+        }
+        return y * 8 + x;
+    }
+    
+    /**
+     * Returns the squares of the white king in the index of a table
+     * @param pawns true if the table has pawns
+     * @return squares by their number in the index
+     */
+    static int[] kingSquares(boolean pawns) {
+        return pawns ? PAWN_KING_SQUARES : KING_SQUARES;
+    }
+    
+    /**
+     * Returns the number of positions in a table, legal or not
+     * @param count number of pieces
+     * @param pawns true if the table has pawns
+     * @return size of the index
+     */
+    static long size(int count, boolean pawns) {
+        long size = 2 * kingSquares(pawns).length;
+        for(int i = 1; i < count; i++)
+            size *= 64;
+        return size;
+    }
+    
+    /**
+     * Returns the index of a position in its table: the side to move, then
+     *  the white king, then the square of each other piece, after the
+     *  board is mirrored by symmetry()
+     * @param squares squares of the pieces in the order of the tables
+     * @param count number of pieces
+     * @param whiteToMove true if white is to move
+     * @param pawns true if the table has pawns
+     * @return index of the position
+     */
+    static long index(int[] squares, int count, boolean whiteToMove,
+            boolean pawns) {
+        int symmetry = symmetry(squares[0], pawns);
+        int[] kingIndex = pawns ? PAWN_KING_INDEX : KING_INDEX;
+        long index = (whiteToMove ? 0 : kingSquares(pawns).length) +
+                kingIndex[transform(squares[0], symmetry)];
+        for(int i = 1; i < count; i++)
+            index = index * 64 + transform(squares[i], symmetry);
+        return index;
+    }
+    
+    /**
+     * A table file mapped into memory
+     */
+    private static final class Table {
+        private final ByteBuffer data;
+        private final int bits;
+        private final boolean pawns;
+    
+        /**
+         * Creates a table
+         * @param data the mapped file
+         * @param bits bits per position
+         * @param pawns true if the table has pawns
+         */
+        Table(ByteBuffer data, int bits, boolean pawns) {
+            this.data = data;
+            this.bits = bits;
+            this.pawns = pawns;
+        }
+    
+        /**
+         * Maps a table file into memory
+         * @param file the table file
+         * @param pawns true if the table has pawns
+         * @return the table, MISSING if the file cannot be read or is not
+         *  a table
+         */
+        static Table open(File file, boolean pawns) {
+            if (!file.exists())
+                return MISSING;
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    FileChannel channel = raf.getChannel();
+                    ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+                            0, channel.size());
+                    if (data.capacity() < HEADER || data.getInt(0) != MAGIC)
+                        return MISSING;
+                    return new Table(data, data.getInt(4), pawns);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                return MISSING;
+            }
+        }
+    
+        /**
+         * Reads the result of a position. Each result is read with one
+         *  8 byte read, the file is padded for the last ones.
+         * @param index index of the position
+         * @return the stored result
+         */
+        int read(long index) {
+            long bit = index * bits;
+            long word = data.getLong(HEADER + (int)(bit >>> 3));
+            return (int)(word >>> (64 - bits - (int)(bit & 7))) &
+                    ((1 << bits) - 1);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package chess;
+
+/**
+ * A fixed-size hash table of search results, keyed by the Zobrist key of
+ * the position. Each bucket holds two entries: one that is only replaced by
+ * results of an equal or deeper search or of a newer generation, and one
+ * that is always replaced. The generation goes up once for every move the
+ * ai searches, so deep results of earlier moves do not hold on to their
+ * entries for the rest of the game.
+ *  The data of an entry is packed into a single long:
+ *  [0-31]: score [32-39]: depth [40-41]: bound type [42-56]: best move
+ *  [57-63]: generation
+ *  Scores are stored as given. Scores that depend on the distance from the
+ *  root, such as tablebase wins, must be made relative to the position
+ *  by the caller before they are stored.
+ *  The table may be shared by several searching threads without locking.
+ *  Each entry is stored as two longs, the key XORed with the data and the 
+ *  data itself. If two threads write an entry at the same time and the
+ *  halves get mixed up, the key no longer matches and the entry is ignored.
+ * @author Paul
+ */
+public class TranspositionTable {
+    
+    // bound types of stored scores
+    public static final int EXACT = 1;
+    public static final int LOWER_BOUND = 2;
+    public static final int UPPER_BOUND = 3;
+    
+    // bytes used by one entry: a key and the packed data
+    private static final int ENTRY_SIZE = 16;
+    // generations wrap around after this many
+    private static final int GENERATIONS = 128;
+    
+    // buckets of two entries, four longs per bucket
+    private final long[] entries;
+    private final int bucketMask;
+    // generation that new entries are stored with
+    private volatile int generation = 0;
+    
+    /**
+     * Creates a new transposition table
+     * @param megabytes memory to use for the table
+     */
+    public TranspositionTable(int megabytes) {
+        long count = Math.max(2L, (long)megabytes * 1024 * 1024 / ENTRY_SIZE);
+        // number of buckets is the largest power of two that fits
+        int buckets = Integer.highestOneBit((int)Math.min(count / 2, 1 << 28));
+        entries = new long[buckets * 4];
+        bucketMask = buckets - 1;
+    }
+    
+    /**
+     * Looks up a position in the table
+     * @param key Zobrist key of the position
+     * @return packed entry for the position, 0 if not found
+     */
+    public long probe(long key) {
+        int i = ((int)key & bucketMask) * 4;
+        long data = entries[i + 1];
+        if (data != 0 && (entries[i] ^ data) == key)
+            return data;
+        data = entries[i + 3];
+        if (data != 0 && (entries[i + 2] ^ data) == key)
+            return data;
+        return 0L;
+    }
+    
+    /**
+     * Stores the result of a search in the table
+     * @param key Zobrist key of the position
+     * @param depth depth of the search
+     * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param score score found by the search
+     * @param move key of the best move found, 0 if none. See PackedMove.key()
+     */
+    public void store(long key, int depth, int bound, int score, int move) {
+        int i = ((int)key & bucketMask) * 4;
+        long data = (score & 0xFFFFFFFFL) | ((long)Math.min(depth, 255) << 32)
+                | ((long)bound << 40) | ((long)move << 42) 
+                | ((long)generation << 57);
+        
+        // the depth-preferred slot keeps the deepest result of the current
+        // generation, others go to the always-replace slot
+        long stored = entries[i + 1];
+        if (stored == 0 || (entries[i] ^ stored) == key || 
+                generation(stored) != generation || depth >= depth(stored)) {
+            entries[i] = key ^ data;
+            entries[i + 1] = data;
+        } else {
+            entries[i + 2] = key ^ data;
+            entries[i + 3] = data;
+        }
+    }
+    
+    /**
+     * Starts a new generation. Entries stored before it may be replaced
+     *  whatever their depth. Called once for each move searched.
+     */
+    public void newGeneration() {
+        generation = (generation + 1) % GENERATIONS;
+    }
+    
+    /**
+     * Empties the table
+     */
+    public void clear() {
+        for(int i = 0; i < entries.length; i++)
+            entries[i] = 0L;
+    }
+    
+    /**
+     * Returns the score of a packed entry
+     * @param entry entry returned by probe()
+     * @return stored score
+     */
+    public static int score(long entry) {
+        return (int)entry;
+    }
+    
+    /**
+     * Returns the search depth of a packed entry
+     * @param entry entry returned by probe()
+     * @return stored depth
+     */
+    public static int depth(long entry) {
+        return (int)(entry >>> 32) & 0xFF;
+    }
+    
+    /**
+     * Returns the bound type of a packed entry
+     * @param entry entry returned by probe()
+     * @return EXACT, LOWER_BOUND or UPPER_BOUND
+     */
+    public static int bound(long entry) {
+        return (int)(entry >>> 40) & 0x3;
+    }
+    
+    /**
+     * Returns the best move key of a packed entry
+     * @param entry entry returned by probe()
+     * @return stored move key, 0 if none
+     */
+    public static int move(long entry) {
+        return (int)(entry >>> 42) & 0x7FFF;
+    }
+    
+    /**
+     * Returns the generation of a packed entry
+     * @param entry entry returned by probe()
+     * @return generation the entry was stored in
+     */
+    public static int generation(long entry) {
+        return (int)(entry >>> 57);
+    }
+}
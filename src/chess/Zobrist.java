@@ -0,0 +1,43 @@
+package chess;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of board positions. A position's key is
+ * the XOR of the keys of its pieces on their squares, the side to move,
+ * the castling rights and the file of a pawn that can be captured en passant.
+ * @author Paul
+ */
+final class Zobrist {
+    
+    // keys indexed by [color.ordinal() * 6 + imageNumber][square]
+    static final long[][] PIECES = new long[12][64];
+    // xored in when black is to move
+    static final long BLACK_TO_MOVE;
+    // keys for the 16 combinations of castling rights
+    static final long[] CASTLING = new long[16];
+    // keys for the file of a pawn that can be captured en passant
+    static final long[] EN_PASSANT = new long[8];
+    
+    // castling right bits
+    static final int WHITE_KINGSIDE = 1;
+    static final int WHITE_QUEENSIDE = 2;
+    static final int BLACK_KINGSIDE = 4;
+    static final int BLACK_QUEENSIDE = 8;
+    
+    static {
+        // a fixed seed gives the same keys on every run
+        Random random = new Random(0x5DEECE66DL);
+        for(int i = 0; i < PIECES.length; i++)
+            for(int sq = 0; sq < 64; sq++)
+                PIECES[i][sq] = random.nextLong();
+        BLACK_TO_MOVE = random.nextLong();
+        // no castling rights leave the key unchanged
+        for(int i = 1; i < CASTLING.length; i++)
+            CASTLING[i] = random.nextLong();
+        for(int i = 0; i < EN_PASSANT.length; i++)
+            EN_PASSANT[i] = random.nextLong();
+    }
+    
+    private Zobrist() { }
+}
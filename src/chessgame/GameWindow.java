@@ -155,6 +155,8 @@ public class GameWindow extends javax.swing.JFrame{
     }// </editor-fold>//GEN-END:initComponents
     
 private void jMenuItem_CloseActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jMenuItem_CloseActionPerformed
+    // stop the ai if it is thinking, so it does not search for nothing
+    gameScreen.stopAi();
     this.dispose();
 }//GEN-LAST:event_jMenuItem_CloseActionPerformed
 